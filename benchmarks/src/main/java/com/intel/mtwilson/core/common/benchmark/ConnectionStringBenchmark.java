@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.benchmark;
+
+import com.intel.mtwilson.core.common.datatypes.ConnectionString;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of connection strings for each vendor. All fixtures have
+ * credentials, so the credential cache is enabled for the valueOf benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionStringBenchmark {
+    /**
+     * index into {@link Fixtures#connectionStrings()}: intel, intel without
+     * prefix, microsoft, vmware, citrix
+     */
+    @Param({"0", "1", "2", "3", "4"})
+    public int vendor;
+
+    private String connectionString;
+
+    @Setup
+    public void setup() {
+        connectionString = Fixtures.connectionStrings()[vendor];
+        ConnectionString.enableCredentialCache(100, 1, TimeUnit.HOURS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ConnectionString.disableCredentialCache();
+    }
+
+    @Benchmark
+    public ConnectionString parse() throws Exception {
+        return new ConnectionString(connectionString);
+    }
+
+    @Benchmark
+    public ConnectionString valueOf() throws Exception {
+        return ConnectionString.valueOf(connectionString);
+    }
+
+    @Benchmark
+    public ConnectionString.VendorConnection parseVendorConnection() throws Exception {
+        return ConnectionString.parseConnectionString(connectionString);
+    }
+}
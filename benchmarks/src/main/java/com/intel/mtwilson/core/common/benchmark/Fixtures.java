@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.benchmark;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.HostInfo;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.Measurement;
+import com.intel.mtwilson.core.common.model.PcrBankType;
+import com.intel.mtwilson.core.common.model.PcrEventLog;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.common.model.x509.UTF8NameValueMicroformat;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import org.apache.commons.codec.binary.Hex;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.AttributeCertificateHolder;
+import org.bouncycastle.cert.AttributeCertificateIssuer;
+import org.bouncycastle.cert.X509v2AttributeCertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Realistic, deterministic inputs for the benchmarks: a manifest with all 24
+ * PCRs in the SHA1 and SHA256 banks and a 2000-event log per bank, software
+ * measurement and manifest documents, connection strings for every vendor
+ * and a signed asset tag attribute certificate.
+ */
+public final class Fixtures {
+    public static final int EVENT_LOG_SIZE = 2000;
+    public static final int MEASUREMENT_FILES = 200;
+    private static final int[] EVENT_LOG_PCRS = {0, 17, 18, 19};
+
+    private Fixtures() {
+    }
+
+    public static PcrManifest pcrManifest() {
+        Random random = new Random(1);
+        PcrManifest pcrManifest = new PcrManifest();
+        for (DigestAlgorithm bank : new DigestAlgorithm[]{DigestAlgorithm.SHA1, DigestAlgorithm.SHA256}) {
+            PcrBankType type = PcrBankType.valueOf(bank);
+            for (int i = 0; i < 24; i++) {
+                pcrManifest.setPcr(type.newPcr(PcrIndex.valueOf(i), randomBytes(random, type.getDigestLength())));
+            }
+            List<List<Measurement>> logs = new ArrayList<>();
+            for (int i = 0; i < EVENT_LOG_PCRS.length; i++) {
+                logs.add(new ArrayList<>());
+            }
+            for (int i = 0; i < EVENT_LOG_SIZE; i++) {
+                String value = Hex.encodeHexString(randomBytes(random, type.getDigestLength()));
+                logs.get(i % EVENT_LOG_PCRS.length).add(type.newMeasurement(value, "module-" + i, null));
+            }
+            for (int i = 0; i < EVENT_LOG_PCRS.length; i++) {
+                pcrManifest.setPcrEventLog(type.newPcrEventLog(PcrIndex.valueOf(EVENT_LOG_PCRS[i]), logs.get(i)));
+            }
+        }
+        return pcrManifest;
+    }
+
+    /**
+     * @return the largest event log of the SHA256 bank in the manifest
+     */
+    public static PcrEventLog pcrEventLog(PcrManifest pcrManifest) {
+        return pcrManifest.getPcrEventLog(DigestAlgorithm.SHA256, PcrIndex.valueOf(EVENT_LOG_PCRS[0]));
+    }
+
+    public static HostManifest hostManifest() {
+        HostInfo hostInfo = new HostInfo();
+        hostInfo.setHostName("host-0001.example.com");
+        hostInfo.setHardwareUuid("80ecce40-04b8-e811-906e-00163566263e");
+        hostInfo.setBiosName("Intel Corporation");
+        hostInfo.setBiosVersion("SE5C620.86B.00.01.0014.070920180847");
+        hostInfo.setOsName("RedHatEnterpriseServer");
+        HostManifest hostManifest = new HostManifest();
+        hostManifest.setHostInfo(hostInfo);
+        hostManifest.setPcrManifest(pcrManifest());
+        hostManifest.setTpmEnabled(true);
+        hostManifest.setTxtEnabled(true);
+        List<String> measurementXmls = new ArrayList<>();
+        measurementXmls.add(measurementXml());
+        hostManifest.setMeasurementXmls(measurementXmls);
+        return hostManifest;
+    }
+
+    public static String measurementXml() {
+        Random random = new Random(2);
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+        xml.append("<Measurement xmlns=\"lib:wml:measurements:1.0\" Label=\"ISecL_Default_Application_Flavor_v1.0_TPM2.0\" Uuid=\"")
+                .append(UUID.nameUUIDFromBytes(new byte[]{2})).append("\" DigestAlg=\"SHA384\">");
+        xml.append("<Dir Exclude=\"\" Include=\".*\" Path=\"/opt/trustagent/bin\">").append(Hex.encodeHexString(randomBytes(random, 48))).append("</Dir>");
+        for (int i = 0; i < MEASUREMENT_FILES; i++) {
+            xml.append("<File Path=\"/opt/trustagent/bin/file-").append(i).append("\">")
+                    .append(Hex.encodeHexString(randomBytes(random, 48))).append("</File>");
+        }
+        xml.append("<Symlink Path=\"/opt/trustagent/bin/link\">").append(Hex.encodeHexString(randomBytes(random, 48))).append("</Symlink>");
+        xml.append("<CumulativeHash>").append(Hex.encodeHexString(randomBytes(random, 48))).append("</CumulativeHash>");
+        xml.append("</Measurement>");
+        return xml.toString();
+    }
+
+    public static String manifestXml() {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+        xml.append("<Manifest xmlns=\"lib:wml:manifests:1.0\" Label=\"ISecL_Default_Application_Flavor_v1.0_TPM2.0\" Uuid=\"")
+                .append(UUID.nameUUIDFromBytes(new byte[]{3})).append("\" DigestAlg=\"SHA384\">");
+        xml.append("<Dir Exclude=\"\" Include=\".*\" Path=\"/opt/trustagent/bin\"/>");
+        for (int i = 0; i < MEASUREMENT_FILES; i++) {
+            xml.append("<File Path=\"/opt/trustagent/bin/file-").append(i).append("\"/>");
+        }
+        xml.append("<Symlink Path=\"/opt/trustagent/bin/link\"/>");
+        xml.append("</Manifest>");
+        return xml.toString();
+    }
+
+    public static String[] connectionStrings() {
+        return new String[]{
+            "intel:https://host-0001.example.com:1443;u=tagentadmin;p=TAgentAdminPassword",
+            "https://host-0001.example.com:1443;u=tagentadmin;p=TAgentAdminPassword",
+            "microsoft:https://host-0002.example.com:1443;u=tagentadmin;p=TAgentAdminPassword",
+            "vmware:https://vcenter.example.com:443/sdk;h=esxi-0001.example.com;u=administrator@vsphere.local;p=VmwarePassword",
+            "citrix:https://xen-0001.example.com:443/;u=root;p=CitrixPassword"
+        };
+    }
+
+    /**
+     * @return a DER-encoded asset tag certificate with ten name-value attributes
+     */
+    public static byte[] attributeCertificate() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(3072);
+        KeyPair issuerKeyPair = keyPairGenerator.generateKeyPair();
+        Date notBefore = new Date();
+        Date notAfter = new Date(notBefore.getTime() + 365L * 24 * 60 * 60 * 1000);
+        X509v2AttributeCertificateBuilder builder = new X509v2AttributeCertificateBuilder(
+                new AttributeCertificateHolder(new X500Name("CN=80ecce40-04b8-e811-906e-00163566263e")),
+                new AttributeCertificateIssuer(new X500Name("CN=assetTagService")),
+                BigInteger.valueOf(1), notBefore, notAfter);
+        for (int i = 0; i < 10; i++) {
+            builder.addAttribute(new ASN1ObjectIdentifier(UTF8NameValueMicroformat.OID), new UTF8NameValueMicroformat("tag-" + i, "value-" + i));
+        }
+        return builder.build(new JcaContentSignerBuilder("SHA384withRSA").build(issuerKeyPair.getPrivate())).getEncoded();
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.benchmark;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.PcrEventLog;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Jackson serialization and deserialization of the host manifest model with
+ * the mapper used by the REST clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JacksonModelBenchmark {
+    private ObjectMapper mapper;
+    private HostManifest hostManifest;
+    private PcrManifest pcrManifest;
+    private PcrEventLog pcrEventLog;
+    private byte[] hostManifestJson;
+    private byte[] pcrManifestJson;
+    private byte[] pcrEventLogJson;
+
+    @Setup
+    public void setup() throws Exception {
+        mapper = JacksonObjectMapperProvider.createDefaultMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        hostManifest = Fixtures.hostManifest();
+        pcrManifest = hostManifest.getPcrManifest();
+        pcrEventLog = Fixtures.pcrEventLog(pcrManifest);
+        hostManifestJson = mapper.writeValueAsBytes(hostManifest);
+        pcrManifestJson = mapper.writeValueAsBytes(pcrManifest);
+        pcrEventLogJson = mapper.writeValueAsBytes(pcrEventLog);
+    }
+
+    @Benchmark
+    public byte[] serializeHostManifest() throws Exception {
+        return mapper.writeValueAsBytes(hostManifest);
+    }
+
+    @Benchmark
+    public HostManifest deserializeHostManifest() throws Exception {
+        return mapper.readValue(hostManifestJson, HostManifest.class);
+    }
+
+    @Benchmark
+    public byte[] serializePcrManifest() throws Exception {
+        return mapper.writeValueAsBytes(pcrManifest);
+    }
+
+    @Benchmark
+    public PcrManifest deserializePcrManifest() throws Exception {
+        return mapper.readValue(pcrManifestJson, PcrManifest.class);
+    }
+
+    @Benchmark
+    public byte[] serializePcrEventLog() throws Exception {
+        return mapper.writeValueAsBytes(pcrEventLog);
+    }
+
+    @Benchmark
+    public PcrEventLog deserializePcrEventLog() throws Exception {
+        return mapper.readValue(pcrEventLogJson, PcrEventLog.class);
+    }
+}
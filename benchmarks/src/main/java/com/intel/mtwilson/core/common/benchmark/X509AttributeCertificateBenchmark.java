@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.benchmark;
+
+import com.intel.mtwilson.core.common.tag.model.X509AttributeCertificate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.asn1.x509.Attribute;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of asset tag attribute certificates. valueOf returns the cached
+ * instance after the first call; the uncached benchmarks clear the cache
+ * before every call to measure a full decode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class X509AttributeCertificateBenchmark {
+    private byte[] encoded;
+    private X509AttributeCertificate certificate;
+
+    @Setup
+    public void setup() throws Exception {
+        encoded = Fixtures.attributeCertificate();
+        certificate = X509AttributeCertificate.valueOf(encoded);
+    }
+
+    @State(Scope.Thread)
+    public static class ColdCache {
+        @Setup(Level.Invocation)
+        public void clearCache() {
+            X509AttributeCertificate.clearCache();
+        }
+    }
+
+    @Benchmark
+    public X509AttributeCertificate valueOf() {
+        return X509AttributeCertificate.valueOf(encoded);
+    }
+
+    @Benchmark
+    public X509AttributeCertificate valueOfUncached(ColdCache coldCache) {
+        return X509AttributeCertificate.valueOf(encoded);
+    }
+
+    /**
+     * Parses the certificate and decodes all of its attributes.
+     */
+    @Benchmark
+    public List<Attribute> decodeUncached(ColdCache coldCache) {
+        return X509AttributeCertificate.valueOf(encoded).getAttribute();
+    }
+
+    @Benchmark
+    public byte[] fingerprintSha384() {
+        return certificate.getFingerprintSha384();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.benchmark;
+
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.intel.mtwilson.core.common.deserializer.ManifestDeserializer;
+import com.intel.mtwilson.core.common.deserializer.MeasurementDeserializer;
+import com.intel.mtwilson.core.common.utils.ManifestUtils;
+import com.intel.mtwilson.core.common.utils.MeasurementUtils;
+import com.intel.wml.manifest.xml.Manifest;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JAXB round trips through MeasurementUtils and ManifestUtils, and the
+ * Jackson deserializers for the same documents.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlBenchmark {
+    private String measurementXml;
+    private String manifestXml;
+    private com.intel.wml.measurement.xml.Measurement measurement;
+    private Manifest manifest;
+    private XmlMapper xmlMapper;
+
+    @Setup
+    public void setup() throws Exception {
+        measurementXml = Fixtures.measurementXml();
+        manifestXml = Fixtures.manifestXml();
+        measurement = MeasurementUtils.parseMeasurementXML(measurementXml);
+        manifest = ManifestUtils.parseManifestXML(manifestXml);
+        SimpleModule module = new SimpleModule();
+        module.addDeserializer(com.intel.wml.measurement.xml.Measurement.class, new MeasurementDeserializer());
+        module.addDeserializer(Manifest.class, new ManifestDeserializer());
+        xmlMapper = new XmlMapper();
+        xmlMapper.registerModule(module);
+    }
+
+    @Benchmark
+    public com.intel.wml.measurement.xml.Measurement parseMeasurementXml() throws Exception {
+        return MeasurementUtils.parseMeasurementXML(measurementXml);
+    }
+
+    @Benchmark
+    public String writeMeasurementXml() throws Exception {
+        return MeasurementUtils.getMeasurementString(measurement);
+    }
+
+    @Benchmark
+    public com.intel.wml.measurement.xml.Measurement measurementRoundTrip() throws Exception {
+        return MeasurementUtils.parseMeasurementXML(MeasurementUtils.getMeasurementString(measurement));
+    }
+
+    @Benchmark
+    public Manifest parseManifestXml() throws Exception {
+        return ManifestUtils.parseManifestXML(manifestXml);
+    }
+
+    @Benchmark
+    public String writeManifestXml() throws Exception {
+        return ManifestUtils.getManifestString(manifest);
+    }
+
+    @Benchmark
+    public Manifest manifestRoundTrip() throws Exception {
+        return ManifestUtils.parseManifestXML(ManifestUtils.getManifestString(manifest));
+    }
+
+    @Benchmark
+    public com.intel.wml.measurement.xml.Measurement measurementDeserializer() throws Exception {
+        return xmlMapper.readValue(measurementXml, com.intel.wml.measurement.xml.Measurement.class);
+    }
+
+    @Benchmark
+    public Manifest manifestDeserializer() throws Exception {
+        return xmlMapper.readValue(manifestXml, Manifest.class);
+    }
+}
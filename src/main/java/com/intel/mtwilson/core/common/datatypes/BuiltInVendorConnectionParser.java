@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.datatypes;
+
+import java.util.Locale;
+
+/**
+ * Parsers for the vendors in {@link Vendor}.
+ */
+enum BuiltInVendorConnectionParser implements VendorConnectionParser {
+    INTEL(Vendor.INTEL) {
+        @Override
+        public Connection parse(ConnectionString.VendorConnection connection) {
+            ConnectionString.IntelConnectionString cs = ConnectionString.IntelConnectionString.forVendorConnection(connection);
+            return new Connection(cs.getHost(), cs.getHost().toString(), cs.getPort(), cs.getUsername(), cs.getPassword());
+        }
+    },
+    CITRIX(Vendor.CITRIX) {
+        @Override
+        public Connection parse(ConnectionString.VendorConnection connection) {
+            ConnectionString.CitrixConnectionString cs = ConnectionString.CitrixConnectionString.forVendorConnection(connection);
+            return new Connection(cs.getHost(), cs.getHost().toString(), cs.getPort(), cs.getUsername(), cs.getPassword());
+        }
+    },
+    VMWARE(Vendor.VMWARE) {
+        @Override
+        public Connection parse(ConnectionString.VendorConnection connection) {
+            ConnectionString.VmwareConnectionString cs = ConnectionString.VmwareConnectionString.forVendorConnection(connection);
+            return new Connection(cs.getHost(), cs.getVCenter().toString(), cs.getPort(), cs.getUsername(), cs.getPassword());
+        }
+    },
+    MICROSOFT(Vendor.MICROSOFT) {
+        @Override
+        public Connection parse(ConnectionString.VendorConnection connection) {
+            ConnectionString.MicrosoftConnectionString cs = ConnectionString.MicrosoftConnectionString.forVendorConnection(connection);
+            return new Connection(cs.getHost(), cs.getHost().toString(), cs.getPort(), cs.getUsername(), cs.getPassword());
+        }
+    };
+
+    private final Vendor vendor;
+    private final String prefix;
+
+    BuiltInVendorConnectionParser(Vendor vendor) {
+        this.vendor = vendor;
+        this.prefix = vendor.name().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public String getPrefix() {
+        return prefix;
+    }
+
+    @Override
+    public Vendor getVendor() {
+        return vendor;
+    }
+
+    static BuiltInVendorConnectionParser valueOf(Vendor vendor) {
+        return valueOf(vendor.name());
+    }
+}
@@ -7,6 +7,7 @@ package com.intel.mtwilson.core.common.datatypes;
 import com.intel.dcsg.cpg.net.Hostname;
 import com.intel.dcsg.cpg.net.InternetAddress;
 import com.intel.mtwilson.core.common.model.HostInfo;
+import com.intel.mtwilson.core.common.utils.BoundedCache;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.MapConfiguration;
 import org.slf4j.Logger;
@@ -14,7 +15,14 @@ import org.slf4j.LoggerFactory;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  * The general connection string format is vendor:url;options The
@@ -22,6 +30,11 @@ import java.util.Properties;
  * expected to be an https URL. If it must include semicolons they should be
  * percent-encoded as %3B (see https://en.wikipedia.org/wiki/Percent-encoding)
  *
+ * Use {@link #valueOf(String)} to parse connection strings that are parsed
+ * repeatedly; it returns the instance already parsed from the same string if
+ * the string has no credentials. Instances are immutable, so they can be
+ * shared.
+ *
  * @author ssbangal
  */
 public class ConnectionString {
@@ -30,18 +43,32 @@ public class ConnectionString {
     public static final String OPT_PASSWORD = "p";
     public static final String OPT_HOSTNAME = "h";
 
-    private static final String httpDelimiter = "//";
-    private static final String parameterDelimiter = ":";
     private static final String urlOptionsDelimiter = ";";
-    private static final String intelVendorRegEx = "^(https?://)?([a-zA-Z0-9\\._-])+(:)*([0-9])*$";
-    private static final String intelVendorRegEx2 = "^(https?://)?([a-zA-Z0-9\\._-])+(:)*([0-9])*(;)*(.)*(;)*(.)*$";
-    private String addOnConnectionString;
-    private Vendor vendor;
-    private InternetAddress hostname;
-    private String managementServerName;
-    private Integer port;
-    private String userName;
-    private String password;
+    private static final Pattern optionsDelimiterPattern = Pattern.compile(urlOptionsDelimiter, Pattern.LITERAL);
+    public static final int MAX_CACHED_CONNECTION_STRINGS = 10000;
+    /**
+     * Keyed by the SHA-256 digest of the connection string, so the keys do not
+     * hold credentials. Only connection strings without a username and
+     * password are kept here.
+     */
+    private static final BoundedCache<String, ConnectionString> cache = new BoundedCache<>(MAX_CACHED_CONNECTION_STRINGS);
+    /** connection strings with credentials; null unless enabled with {@link #enableCredentialCache} */
+    private static volatile BoundedCache<String, ConnectionString> credentialCache;
+    private static final ThreadLocal<MessageDigest> CACHE_KEY_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+    private final String addOnConnectionString;
+    private final Vendor vendor;
+    private final String vendorPrefix;
+    private final InternetAddress hostname;
+    private final String managementServerName;
+    private final Integer port;
+    private final String userName;
+    private final String password;
 
     public String getUserName() {
         return userName;
@@ -51,45 +78,76 @@ public class ConnectionString {
         return password;
     }
     
+    /**
+     * A connection string split into its vendor and address. The url and
+     * options are only parsed for the built-in vendors; they are null for
+     * vendors provided by a VendorConnectionParser, whose address does not
+     * have to be a URL.
+     */
     public static class VendorConnection {
+        /** null for vendors that are not built in, see vendorPrefix */
         public Vendor vendor;
+        public String vendorPrefix;
         public URL url;
         public Configuration options;
+        private String address;
+        private boolean prefixed;
+        private VendorConnectionParser parser;
+
+        /**
+         * @return the connection string without the vendor prefix and its colon, options included
+         */
+        public String getAddress() {
+            return address;
+        }
     }
 
     public static VendorConnection parseConnectionString(String connectionString) throws MalformedURLException {
         VendorConnection vc = new VendorConnection();
-        vc.vendor = vendorFromURL(connectionString);
+        VendorConnectionParser parser = VendorConnectionRegistry.forConnectionString(connectionString);
         String vendorURL;
-        if (vc.vendor == null) {
+        if (parser == null) {
             vc.vendor = guessVendorFromURL(connectionString);
+            parser = VendorConnectionRegistry.forVendor(vc.vendor);
+            vc.vendorPrefix = parser.getPrefix();
             vendorURL = connectionString;
         } else {
-            vendorURL = connectionString.substring(vc.vendor.name().length() + 1);
-        }
-        if (vc.vendor != null) {
-            int optionStartIndex = vendorURL.indexOf(urlOptionsDelimiter);
-            if (optionStartIndex > -1) {
-                String urlPart = vendorURL.substring(0, optionStartIndex);
-                String optionsPart = vendorURL.substring(optionStartIndex + 1); // skip the delimiter
-                log.debug("URL part: {}", urlPart);
-                vc.url = new URL(urlPart); // vendorURL without the options
-                vc.options = parseOptions(optionsPart);
-            } else {
-                vc.url = new URL(vendorURL);
-                vc.options = null;
-            }
+            vc.vendor = parser.getVendor();
+            vc.vendorPrefix = parser.getPrefix();
+            vc.prefixed = true;
+            vendorURL = connectionString.substring(vc.vendorPrefix.length() + 1);
+        }
+        vc.parser = parser;
+        vc.address = vendorURL;
+        if (vc.vendor == null) {
+            return vc;
+        }
+        int optionStartIndex = vendorURL.indexOf(urlOptionsDelimiter);
+        if (optionStartIndex > -1) {
+            String urlPart = vendorURL.substring(0, optionStartIndex);
+            String optionsPart = vendorURL.substring(optionStartIndex + 1); // skip the delimiter
+            log.debug("URL part: {}", urlPart);
+            vc.url = new URL(urlPart); // vendorURL without the options
+            vc.options = parseOptions(optionsPart);
+        } else {
+            vc.url = new URL(vendorURL);
+            vc.options = null;
         }
         return vc;
     }
 
+    /**
+     * Splits the options once; the key=value options and the positional
+     * username;password;hostname options are both read from the same parts.
+     */
     private static Configuration parseOptions(String options) {
-        while (options.startsWith(urlOptionsDelimiter)) {
-            options = options.substring(urlOptionsDelimiter.length());
+        int start = 0;
+        while (options.startsWith(urlOptionsDelimiter, start)) {
+            start += urlOptionsDelimiter.length();
         }
+        String[] parts = optionsDelimiterPattern.split(options.substring(start));
         Properties p = new Properties();
-        String[] keyValuePairs = options.split(urlOptionsDelimiter);
-        for (String keyValuePair : keyValuePairs) {
+        for (String keyValuePair : parts) {
             String[] keyValue = keyValuePair.trim().split("=");
             if (keyValue.length == 2 && !keyValue[0].isEmpty()) {
                 p.setProperty(keyValue[0], keyValue[1]);
@@ -98,19 +156,19 @@ public class ConnectionString {
         }
         // backwards compatible options:   username;password  or username;password;hostname
         if (!p.containsKey(OPT_USERNAME)) {
-            String username = usernameFromURL(urlOptionsDelimiter + options);
+            String username = usernameFromOptions(parts);
             if (username != null) {
                 p.setProperty(OPT_USERNAME, username);
             }
         }
         if (!p.containsKey(OPT_PASSWORD)) {
-            String password = passwordFromURL(urlOptionsDelimiter + options);
+            String password = passwordFromOptions(parts);
             if (password != null) {
                 p.setProperty(OPT_PASSWORD, password);
             }
         }
         if (!p.containsKey(OPT_HOSTNAME)) {
-            String hostname = hostnameFromURL(urlOptionsDelimiter + options);
+            String hostname = hostnameFromOptions(parts);
             if (hostname != null) {
                 p.setProperty(OPT_HOSTNAME, hostname);
             }
@@ -119,12 +177,22 @@ public class ConnectionString {
     }
 
     public ConnectionString() {
-        this.addOnConnectionString = "";
-        this.hostname = null;
-        this.port = 0;
-        this.managementServerName = "";
-        this.userName = "";
-        this.password = "";
+        this(null, "", null, "", 0, "", "");
+    }
+
+    private ConnectionString(Vendor vendor, String addOnConnectionString, InternetAddress hostname, String managementServerName, Integer port, String userName, String password) {
+        this(vendor, null, addOnConnectionString, hostname, managementServerName, port, userName, password);
+    }
+
+    private ConnectionString(Vendor vendor, String vendorPrefix, String addOnConnectionString, InternetAddress hostname, String managementServerName, Integer port, String userName, String password) {
+        this.vendor = vendor;
+        this.vendorPrefix = vendorPrefix;
+        this.addOnConnectionString = addOnConnectionString;
+        this.hostname = hostname;
+        this.managementServerName = managementServerName;
+        this.port = port;
+        this.userName = userName;
+        this.password = password;
     }
 
     /**
@@ -167,54 +235,119 @@ public class ConnectionString {
      * @param connectionString
      */
     public ConnectionString(String connectionString) throws MalformedURLException {
-        this();
-        vendor = vendorFromURL(connectionString);
+        VendorConnection info = parseConnectionString(connectionString);
+        vendor = info.vendor;
+        vendorPrefix = info.vendorPrefix;
         // Let us first check if the connection string has the prefix of the vendor or not.
-        if (vendor == null) {
-            vendor = guessVendorFromURL(connectionString);
-        } else { // if( vendor != null )
-            connectionString = vendorConnectionFromURL(connectionString);
-            if (connectionString == null) {
-                throw new IllegalArgumentException("Invalid or missing connection string");
-            }
+        if (info.prefixed) {
+            connectionString = connectionString.substring(vendorPrefix.length() + 1);
         }
         addOnConnectionString = connectionString;
-        switch (vendor) {
-            case INTEL:
-                IntelConnectionString intelConnection = IntelConnectionString.forURL(connectionString);
-                hostname = intelConnection.getHost();
-                port = intelConnection.getPort();
-                managementServerName = hostname.toString();
-                userName = intelConnection.username;
-                password = intelConnection.password;
-                break;
-            case CITRIX:
-                // Need to add the vendor explicitly since Intel and Citrix hosts have the exact same connection string.
-                CitrixConnectionString citrixConnection = CitrixConnectionString.forURL(vendor.CITRIX + ":" + connectionString);
-                hostname = citrixConnection.getHost();
-                port = citrixConnection.getPort();
-                managementServerName = hostname.toString();
-                userName = citrixConnection.getUsername();
-                password = citrixConnection.getPassword();
-                break;
-            case VMWARE:
-                VmwareConnectionString vmwareConnection = VmwareConnectionString.forURL(connectionString);
-                hostname = vmwareConnection.getHost();
-                port = vmwareConnection.getPort();
-                managementServerName = vmwareConnection.getVCenter().toString();
-                userName = vmwareConnection.getUsername();
-                password = vmwareConnection.getPassword();
-                break;
-            case MICROSOFT:
-                MicrosoftConnectionString microsoftConnection = MicrosoftConnectionString.forURL(vendor.MICROSOFT + ":" + connectionString);
-                hostname = microsoftConnection.getHost();
-                port = microsoftConnection.getPort();
-                managementServerName = hostname.toString();
-                userName = microsoftConnection.getUsername();
-                password = microsoftConnection.getPassword();
-                break;
-            default:
-                throw new UnsupportedOperationException("Vendor not supported yet: " + vendor.toString());
+        VendorConnectionParser.Connection connection = info.parser.parse(info);
+        hostname = connection.getHost();
+        port = connection.getPort();
+        managementServerName = connection.getManagementServerName();
+        userName = connection.getUsername();
+        password = connection.getPassword();
+    }
+
+    /**
+     * Returns the connection string parsed from the same text, parsing it
+     * only the first time. The returned instance is shared.
+     *
+     * The cache holds up to {@link #MAX_CACHED_CONNECTION_STRINGS} parsed
+     * instances until they are evicted or {@link #clearCache()} is called.
+     * Connection strings with a username or password are parsed on every
+     * call and not kept, unless {@link #enableCredentialCache} was called.
+     * The cache keys are digests of the connection strings, not the strings
+     * themselves.
+     *
+     * @param connectionString
+     * @return
+     * @throws MalformedURLException
+     */
+    public static ConnectionString valueOf(String connectionString) throws MalformedURLException {
+        String key = cacheKey(connectionString);
+        ConnectionString result = cache.get(key);
+        if (result != null) {
+            return result;
+        }
+        BoundedCache<String, ConnectionString> credentials = credentialCache;
+        if (credentials != null) {
+            result = credentials.get(key);
+            if (result != null) {
+                return result;
+            }
+        }
+        result = new ConnectionString(connectionString);
+        if (!result.hasCredentials()) {
+            cache.put(key, result);
+        } else if (credentials != null) {
+            credentials.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Lets {@link #valueOf(String)} also cache connection strings with
+     * credentials, which are then held in memory until they expire. Calling
+     * it again replaces the cache and drops its entries.
+     *
+     * @param maxSize maximum number of connection strings with credentials to keep
+     * @param ttl time after which a cached connection string is parsed again; must be positive
+     * @param unit unit of ttl
+     */
+    public static void enableCredentialCache(int maxSize, long ttl, TimeUnit unit) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("Time to live must be positive");
+        }
+        BoundedCache<String, ConnectionString> previous = credentialCache;
+        credentialCache = new BoundedCache<>(maxSize, ttl, unit, BoundedCache.Expiry.AFTER_WRITE);
+        if (previous != null) {
+            previous.invalidateAll();
+        }
+    }
+
+    public static void disableCredentialCache() {
+        BoundedCache<String, ConnectionString> previous = credentialCache;
+        credentialCache = null;
+        if (previous != null) {
+            previous.invalidateAll();
+        }
+    }
+
+    private boolean hasCredentials() {
+        return (userName != null && !userName.isEmpty()) || (password != null && !password.isEmpty());
+    }
+
+    private static String cacheKey(String connectionString) {
+        MessageDigest md = CACHE_KEY_DIGEST.get();
+        return Base64.getEncoder().encodeToString(md.digest(connectionString.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Parses many connection strings, one per element, in parallel for large
+     * inputs. Malformed connection strings are reported as errors with their
+     * position instead of aborting, and duplicates of the same vendor, host
+     * and port are dropped. See {@link ConnectionStringBatch#read(java.nio.file.Path)}
+     * to read them from a file.
+     *
+     * @param connectionStrings
+     * @return
+     */
+    public static ConnectionStringBatch parseAll(Stream<String> connectionStrings) {
+        return ConnectionStringBatch.parse(connectionStrings);
+    }
+
+    /**
+     * Removes all parsed connection strings from the cache used by
+     * {@link #valueOf(String)}.
+     */
+    public static void clearCache() {
+        cache.invalidateAll();
+        BoundedCache<String, ConnectionString> credentials = credentialCache;
+        if (credentials != null) {
+            credentials.invalidateAll();
         }
     }
 
@@ -228,14 +361,15 @@ public class ConnectionString {
      * @return
      */
     public String getConnectionStringWithPrefix() {
-        if (this.vendor == null) {
+        String prefix = getVendorPrefix();
+        if (prefix == null) {
             return "";
         }
         String connStr = getConnectionString();
-        if (connStr.toLowerCase().startsWith(this.vendor.name().toLowerCase())) {
+        if (connStr.regionMatches(true, 0, prefix, 0, prefix.length())) {
             return connStr;
         }
-        return String.format("%s:%s", this.vendor.name().toLowerCase(), connStr);
+        return String.format("%s:%s", prefix, connStr);
     }
 
     /**
@@ -267,7 +401,8 @@ public class ConnectionString {
                     ? String.format("https://%s:%d/;%s;%s", this.managementServerName, this.port, this.userName, this.password)
                     : String.format("%s", this.addOnConnectionString);
         } else {
-            connectionString = "";
+            // vendors provided by a VendorConnectionParser are only created by parsing
+            connectionString = this.addOnConnectionString;
         }
         return connectionString;
     }
@@ -303,6 +438,8 @@ public class ConnectionString {
                 } else {
                     return new URL(this.addOnConnectionString);
                 }
+            } else if (this.vendorPrefix != null && !this.addOnConnectionString.isEmpty()) {
+                return pluginURL(this.addOnConnectionString);
             } else {
                 return null;
             }
@@ -312,6 +449,21 @@ public class ConnectionString {
         }
     }
 
+    /**
+     * The address of a vendor provided by a VendorConnectionParser is not
+     * necessarily a URL, for example unix:///var/run/agent.sock.
+     *
+     * @return the address without its options as a URL, or null if it is not one
+     */
+    private static URL pluginURL(String address) {
+        int optionStartIndex = address.indexOf(urlOptionsDelimiter);
+        try {
+            return new URL(optionStartIndex > -1 ? address.substring(0, optionStartIndex) : address);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
     /**
      * This retrieves the addOnConnectionString component of the connection
      * string. Before calling this method ConnectionString(String
@@ -364,12 +516,26 @@ public class ConnectionString {
      * This would return the host type of the host, which can be either INTEL,
      * VMWARE or CITRIX, or MICROSOFT
      *
-     * @return
+     * @return the vendor, or null for a vendor provided by a VendorConnectionParser
      */
     public Vendor getVendor() {
         return vendor;
     }
 
+    /**
+     * Returns the vendor prefix of the connection string, for example intel.
+     * Unlike getVendor() this is also set for vendors provided by a
+     * VendorConnectionParser.
+     *
+     * @return
+     */
+    public String getVendorPrefix() {
+        if (vendorPrefix == null && vendor != null) {
+            return VendorConnectionRegistry.forVendor(vendor).getPrefix();
+        }
+        return vendorPrefix;
+    }
+
     public static class IntelConnectionString {
 
         private InternetAddress hostAddress;
@@ -408,8 +574,11 @@ public class ConnectionString {
         }
 
         public static IntelConnectionString forURL(String url) throws MalformedURLException {
+            return forVendorConnection(parseConnectionString(url));
+        }
+
+        static IntelConnectionString forVendorConnection(VendorConnection info) {
             IntelConnectionString cs = new IntelConnectionString();
-            VendorConnection info = parseConnectionString(url);
             if (info.url == null) {
                 throw new IllegalArgumentException("Missing host address in URL");
             }
@@ -464,8 +633,11 @@ public class ConnectionString {
         }
 
         public static MicrosoftConnectionString forURL(String url) throws MalformedURLException {
+            return forVendorConnection(parseConnectionString(url));
+        }
+
+        static MicrosoftConnectionString forVendorConnection(VendorConnection info) {
             MicrosoftConnectionString cs = new MicrosoftConnectionString();
-            VendorConnection info = parseConnectionString(url);
             if (info.url == null) {
                 throw new IllegalArgumentException("Missing host address in URL");
             }
@@ -520,8 +692,11 @@ public class ConnectionString {
         }
 
         public static CitrixConnectionString forURL(String url) throws MalformedURLException {
+            return forVendorConnection(parseConnectionString(url));
+        }
+
+        static CitrixConnectionString forVendorConnection(VendorConnection info) {
             CitrixConnectionString cs = new CitrixConnectionString();
-            VendorConnection info = parseConnectionString(url);
             if (info.url == null) {
                 throw new IllegalArgumentException("Missing host address in URL");
             }
@@ -601,8 +776,11 @@ public class ConnectionString {
         }
 
         public static VmwareConnectionString forURL(String url) throws MalformedURLException {
+            return forVendorConnection(parseConnectionString(url));
+        }
+
+        static VmwareConnectionString forVendorConnection(VendorConnection info) {
             VmwareConnectionString cs = new VmwareConnectionString();
-            VendorConnection info = parseConnectionString(url);
             if (info.url == null) {
                 throw new IllegalArgumentException("Missing host address in URL");
             }
@@ -637,12 +815,7 @@ public class ConnectionString {
      * @return
      */
     public static ConnectionString forIntel(Hostname hostname) {
-        ConnectionString conn = new ConnectionString();
-        conn.vendor = Vendor.INTEL;
-        conn.hostname = new InternetAddress(hostname.toString());
-        conn.managementServerName = hostname.toString();
-        conn.port = 9999; // default Intel Trust Agent port
-        return conn;
+        return new ConnectionString(Vendor.INTEL, "", new InternetAddress(hostname.toString()), hostname.toString(), 9999, "", ""); // default Intel Trust Agent port
     }
 
     /**
@@ -653,12 +826,7 @@ public class ConnectionString {
      * @return
      */
     public static ConnectionString forIntel(Hostname hostname, Integer port) {
-        ConnectionString conn = new ConnectionString();
-        conn.vendor = Vendor.INTEL;
-        conn.hostname = new InternetAddress(hostname.toString());
-        conn.managementServerName = hostname.toString();
-        conn.port = port;
-        return conn;
+        return new ConnectionString(Vendor.INTEL, "", new InternetAddress(hostname.toString()), hostname.toString(), port, "", "");
     }
 
     /**
@@ -673,14 +841,7 @@ public class ConnectionString {
     }
 
     public static ConnectionString forIntel(String hostname, Integer port, String username, String password) {
-        ConnectionString conn = new ConnectionString();
-        conn.vendor = Vendor.INTEL;
-        conn.hostname = new InternetAddress(hostname);
-        conn.managementServerName = hostname;
-        conn.port = port;
-        conn.userName = username;
-        conn.password = password;
-        return conn;
+        return new ConnectionString(Vendor.INTEL, "", new InternetAddress(hostname), hostname, port, username, password);
     }
 
     /**
@@ -700,12 +861,7 @@ public class ConnectionString {
      * @return
      */
     public static ConnectionString forMicorsoft(Hostname hostname) {
-        ConnectionString conn = new ConnectionString();
-        conn.vendor = Vendor.MICROSOFT;
-        conn.hostname = new InternetAddress(hostname.toString());
-        conn.managementServerName = hostname.toString();
-        conn.port = 9999; // default Intel Trust Agent port
-        return conn;
+        return new ConnectionString(Vendor.MICROSOFT, "", new InternetAddress(hostname.toString()), hostname.toString(), 9999, "", ""); // default Intel Trust Agent port
     }
 
     /**
@@ -716,12 +872,7 @@ public class ConnectionString {
      * @return
      */
     public static ConnectionString forMicorsoft(Hostname hostname, Integer port) {
-        ConnectionString conn = new ConnectionString();
-        conn.vendor = Vendor.MICROSOFT;
-        conn.hostname = new InternetAddress(hostname.toString());
-        conn.managementServerName = hostname.toString();
-        conn.port = port;
-        return conn;
+        return new ConnectionString(Vendor.MICROSOFT, "", new InternetAddress(hostname.toString()), hostname.toString(), port, "", "");
     }
 
     /**
@@ -736,14 +887,7 @@ public class ConnectionString {
     }
 
     public static ConnectionString forMicrosoft(String hostname, Integer port, String username, String password) {
-        ConnectionString conn = new ConnectionString();
-        conn.vendor = Vendor.MICROSOFT;
-        conn.hostname = new InternetAddress(hostname);
-        conn.managementServerName = hostname;
-        conn.port = port;
-        conn.userName = username;
-        conn.password = password;
-        return conn;
+        return new ConnectionString(Vendor.MICROSOFT, "", new InternetAddress(hostname), hostname, port, username, password);
     }
 
     /**
@@ -755,14 +899,7 @@ public class ConnectionString {
      * @return
      */
     public static ConnectionString forCitrix(Hostname hostname, String username, String password) {
-        ConnectionString conn = new ConnectionString();
-        conn.vendor = Vendor.CITRIX;
-        conn.hostname = new InternetAddress(hostname.toString());
-        conn.managementServerName = hostname.toString();
-        conn.port = 443;
-        conn.userName = username;
-        conn.password = password;
-        return conn;
+        return new ConnectionString(Vendor.CITRIX, "", new InternetAddress(hostname.toString()), hostname.toString(), 443, username, password);
     }
 
     /**
@@ -775,14 +912,7 @@ public class ConnectionString {
      * @return
      */
     public static ConnectionString forCitrix(Hostname hostname, Integer port, String username, String password) {
-        ConnectionString conn = new ConnectionString();
-        conn.vendor = Vendor.CITRIX;
-        conn.hostname = new InternetAddress(hostname.toString());
-        conn.managementServerName = hostname.toString();
-        conn.port = port;
-        conn.userName = username;
-        conn.password = password;
-        return conn;
+        return new ConnectionString(Vendor.CITRIX, "", new InternetAddress(hostname.toString()), hostname.toString(), port, username, password);
     }
 
     /**
@@ -795,14 +925,7 @@ public class ConnectionString {
      * @return
      */
     public static ConnectionString forVmware(Hostname hostname, Hostname vcenter, String username, String password) {
-        ConnectionString conn = new ConnectionString();
-        conn.vendor = Vendor.VMWARE;
-        conn.hostname = new InternetAddress(hostname.toString());
-        conn.managementServerName = vcenter.toString();
-        conn.port = 443;
-        conn.userName = username;
-        conn.password = password;
-        return conn;
+        return new ConnectionString(Vendor.VMWARE, "", new InternetAddress(hostname.toString()), vcenter.toString(), 443, username, password);
     }
 
     /**
@@ -816,14 +939,7 @@ public class ConnectionString {
      * @return
      */
     public static ConnectionString forVmware(Hostname hostname, Hostname vcenter, Integer port, String username, String password) {
-        ConnectionString conn = new ConnectionString();
-        conn.vendor = Vendor.VMWARE;
-        conn.hostname = new InternetAddress(hostname.toString());
-        conn.managementServerName = vcenter.toString();
-        conn.port = port;
-        conn.userName = username;
-        conn.password = password;
-        return conn;
+        return new ConnectionString(Vendor.VMWARE, "", new InternetAddress(hostname.toString()), vcenter.toString(), port, username, password);
     }
 
     /**
@@ -836,14 +952,7 @@ public class ConnectionString {
      * @return
      */
     public static ConnectionString forVmware(Hostname hostname, URL vcenter, String username, String password) {
-        ConnectionString conn = new ConnectionString();
-        conn.vendor = Vendor.VMWARE;
-        conn.hostname = new InternetAddress(hostname.toString());
-        conn.managementServerName = vcenter.toString();
-        conn.port = portFromURL(vcenter);
-        conn.userName = username;
-        conn.password = password;
-        return conn;
+        return new ConnectionString(Vendor.VMWARE, "", new InternetAddress(hostname.toString()), vcenter.toString(), portFromURL(vcenter), username, password);
     }
 
     /**
@@ -878,16 +987,10 @@ public class ConnectionString {
      * https://vcenter:443/sdk;u=username;p=password;u=hostname
      * https://vcenter:443/sdk;u=hostname;u=username;p=password
      *
-     * @param url
+     * @param parts the options after the first semicolon
      * @return
      */
-    private static String usernameFromURL(String url) {
-        String str = url;
-        if (str.indexOf(';') == -1) {
-            return null;
-        }
-        String params = str.substring(str.indexOf(';') + 1); // get everything after the first semicolon 
-        String[] parts = params.split(";");
+    private static String usernameFromOptions(String[] parts) {
         if (parts.length == 1) {
             if (parts[0].toLowerCase().startsWith("u=")) {
                 return parts[0].substring(2); // value after the "u="  for URL like https://citrix:443;u=username
@@ -930,16 +1033,10 @@ public class ConnectionString {
      * https://vcenter:443/sdk;u=username;p=password;u=hostname
      * https://vcenter:443/sdk;u=hostname;u=username;p=password
      *
-     * @param url
+     * @param parts the options after the first semicolon
      * @return
      */
-    private static String passwordFromURL(String url) {
-        String str = url;
-        if (str.indexOf(';') == -1) {
-            return null;
-        }
-        String params = str.substring(str.indexOf(';') + 1); // get everything after the first semicolon 
-        String[] parts = params.split(";");
+    private static String passwordFromOptions(String[] parts) {
         if (parts.length == 1) {
             return null; // no password in URL like  https://citrix:443;username or https://vcenter:443/sdk;username
         }
@@ -977,16 +1074,10 @@ public class ConnectionString {
      * https://vcenter:443/sdk;u=username;p=password;u=hostname
      * https://vcenter:443/sdk;u=hostname;u=username;p=password
      *
-     * @param url
+     * @param parts the options after the first semicolon
      * @return
      */
-    private static String hostnameFromURL(String url) {
-        String str = url;
-        if (str.indexOf(';') == -1) {
-            return null;
-        }
-        String params = str.substring(str.indexOf(';') + 1); // get everything after the first semicolon 
-        String[] parts = params.split(";");
+    private static String hostnameFromOptions(String[] parts) {
         if (parts.length == 1) {
             return null; // no hostname in URL like https://vcenter:443/sdk;username
         }
@@ -1014,34 +1105,14 @@ public class ConnectionString {
         return null;
     }
 
-    private static Vendor vendorFromURL(String url) {
-        for (Vendor v : Vendor.values()) {
-            if (url.toLowerCase().startsWith(v.name().toLowerCase() + ":")) {
-                return v;
-            }
-        }
-        return null;
-    }
-
-    private static String vendorConnectionFromURL(String url) throws MalformedURLException {
-        Vendor v = vendorFromURL(url);
-        if (v == null) {
-            return null;
-        }
-        String str = url.substring(v.name().length() + 1); // start one character after the vendor prefix (vendor name followed by the colon)
-        return str;
-    }
-
     public static ConnectionString from(HostInfo host, String connectionString) throws MalformedURLException {
-        if (connectionString.startsWith("intel") || connectionString.startsWith("microsoft")) {
-            return new ConnectionString(connectionString);
-        } else if (connectionString.startsWith("vmware") || connectionString.startsWith("citrix")) {
+        VendorConnectionParser parser = VendorConnectionRegistry.forConnectionString(connectionString);
+        ConnectionString cs = new ConnectionString(connectionString);
+        if (parser != null && (parser.getVendor() == Vendor.VMWARE || parser.getVendor() == Vendor.CITRIX)) {
             // ensure the hostname itself is present as a parameter on the connection string, since we have that information in the TxtHostRecord object 
-            ConnectionString cs = new ConnectionString(connectionString);
-            cs.hostname = new InternetAddress(host.getHostName());
-            return cs;
-        } else {
-            return new ConnectionString(connectionString);
+            return new ConnectionString(cs.vendor, cs.vendorPrefix, cs.addOnConnectionString, new InternetAddress(host.getHostName()),
+                    cs.managementServerName, cs.port, cs.userName, cs.password);
         }
+        return cs;
     }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.datatypes;
+
+import com.intel.dcsg.cpg.net.InternetAddress;
+import java.net.MalformedURLException;
+
+/**
+ * Parses the connection strings of one vendor, identified by the prefix of
+ * the connection string, for example "intel" in intel:https://host:1443.
+ *
+ * Parsers for additional vendors are discovered with
+ * {@link java.util.ServiceLoader}: list the implementation class in
+ * META-INF/services/com.intel.mtwilson.core.common.datatypes.VendorConnectionParser.
+ * They can also be added with {@link VendorConnectionRegistry#register(VendorConnectionParser)}.
+ * Implementations must be thread-safe.
+ */
+public interface VendorConnectionParser {
+
+    /**
+     * @return the vendor prefix without the colon; prefixes are matched case-insensitively
+     */
+    String getPrefix();
+
+    /**
+     * @return the built-in vendor, or null for vendors that are not in {@link Vendor}
+     */
+    default Vendor getVendor() {
+        return null;
+    }
+
+    /**
+     * Only the built-in parsers get the url and options of the connection
+     * already parsed. Other parsers get them as null and read
+     * {@link ConnectionString.VendorConnection#getAddress()}, the text after
+     * the vendor prefix, so their addresses do not have to be URLs.
+     *
+     * @param connection the connection string without the vendor prefix
+     * @return the host and credentials
+     * @throws MalformedURLException
+     * @throws IllegalArgumentException if the connection string is not valid for the vendor
+     */
+    Connection parse(ConnectionString.VendorConnection connection) throws MalformedURLException;
+
+    class Connection {
+        private final InternetAddress host;
+        private final String managementServerName;
+        private final int port;
+        private final String username;
+        private final String password;
+
+        /**
+         * @param host the host being connected to
+         * @param managementServerName the server that manages the host, the host itself if it is managed directly
+         * @param port
+         * @param username
+         * @param password
+         */
+        public Connection(InternetAddress host, String managementServerName, int port, String username, String password) {
+            this.host = host;
+            this.managementServerName = managementServerName;
+            this.port = port;
+            this.username = username;
+            this.password = password;
+        }
+
+        public InternetAddress getHost() {
+            return host;
+        }
+
+        public String getManagementServerName() {
+            return managementServerName;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.datatypes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * The vendor connection string parsers: the built-in vendors, the parsers
+ * found with {@link ServiceLoader} and the ones registered at runtime.
+ *
+ * The vendor prefix of a connection string is found by walking a trie of the
+ * registered prefixes one character at a time, so detecting the vendor costs
+ * the length of the prefix no matter how many vendors are registered. The
+ * trie is rebuilt when a parser is registered and replaced atomically, so
+ * lookups never lock.
+ */
+public final class VendorConnectionRegistry {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(VendorConnectionRegistry.class);
+    private static final Map<String, VendorConnectionParser> parsers = new LinkedHashMap<>();
+    private static volatile Node trie;
+
+    static {
+        for (BuiltInVendorConnectionParser parser : BuiltInVendorConnectionParser.values()) {
+            parsers.put(parser.getPrefix(), parser);
+        }
+        try {
+            Iterator<VendorConnectionParser> loaded = ServiceLoader.load(VendorConnectionParser.class).iterator();
+            while (loaded.hasNext()) {
+                VendorConnectionParser parser = loaded.next();
+                try {
+                    add(parser);
+                } catch (IllegalArgumentException e) {
+                    log.error("Vendor connection parser {} ignored: {}", parser.getClass().getName(), e.getMessage());
+                }
+            }
+        } catch (ServiceConfigurationError e) {
+            log.error("Cannot load vendor connection parsers: {}", e.getMessage());
+        }
+        trie = Node.of(parsers);
+    }
+
+    private VendorConnectionRegistry() {
+    }
+
+    /**
+     * Adds a parser for a new vendor. Built-in vendors and vendors that are
+     * already registered cannot be replaced. Adding a parser clears the
+     * cache of {@link ConnectionString#valueOf(String)}, so connection
+     * strings with the new prefix are parsed again.
+     *
+     * @return false if a parser is already registered for the prefix
+     * @throws IllegalArgumentException if the prefix is empty, contains a colon, or is http or https
+     */
+    public static synchronized boolean register(VendorConnectionParser parser) {
+        boolean added = add(parser);
+        if (added) {
+            trie = Node.of(parsers);
+            ConnectionString.clearCache();
+        }
+        return added;
+    }
+
+    private static boolean add(VendorConnectionParser parser) {
+        String prefix = parser.getPrefix() == null ? "" : parser.getPrefix().toLowerCase(Locale.ROOT);
+        if (prefix.isEmpty() || prefix.indexOf(':') > -1 || prefix.equals("http") || prefix.equals("https")) {
+            throw new IllegalArgumentException("Invalid vendor prefix: " + parser.getPrefix());
+        }
+        if (parsers.containsKey(prefix)) {
+            log.warn("Vendor connection parser {} ignored, prefix {} is already registered", parser.getClass().getName(), prefix);
+            return false;
+        }
+        log.debug("Registered vendor connection parser {} for prefix {}", parser.getClass().getName(), prefix);
+        parsers.put(prefix, parser);
+        return true;
+    }
+
+    /**
+     * @return the parser for the vendor prefix of the connection string, or
+     * null if the connection string does not start with a registered prefix
+     * followed by a colon
+     */
+    public static VendorConnectionParser forConnectionString(String connectionString) {
+        Node node = trie;
+        for (int i = 0; i < connectionString.length(); i++) {
+            char c = connectionString.charAt(i);
+            if (c == ':') {
+                return node.parser;
+            }
+            node = node.children.get(Character.toLowerCase(c));
+            if (node == null) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the parser registered for the prefix, or null
+     */
+    public static synchronized VendorConnectionParser forPrefix(String prefix) {
+        return parsers.get(prefix.toLowerCase(Locale.ROOT));
+    }
+
+    public static VendorConnectionParser forVendor(Vendor vendor) {
+        return BuiltInVendorConnectionParser.valueOf(vendor);
+    }
+
+    /**
+     * @return the registered parsers in registration order, starting with the built-in vendors
+     */
+    public static synchronized List<VendorConnectionParser> getParsers() {
+        return Collections.unmodifiableList(new ArrayList<>(parsers.values()));
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private VendorConnectionParser parser;
+
+        static Node of(Map<String, VendorConnectionParser> parsers) {
+            Node root = new Node();
+            for (Map.Entry<String, VendorConnectionParser> entry : parsers.entrySet()) {
+                Node node = root;
+                for (char c : entry.getKey().toCharArray()) {
+                    node = node.children.computeIfAbsent(c, k -> new Node());
+                }
+                node.parser = entry.getValue();
+            }
+            return root;
+        }
+    }
+}
@@ -5,20 +5,19 @@
 package com.intel.mtwilson.core.common.deserializer;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.*;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.intel.mtwilson.core.common.utils.ManifestUtils;
-import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
 import com.intel.wml.manifest.xml.*;
 
 import javax.xml.bind.JAXBException;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 
 /**
+ * Reads a manifest in a single pass over the parser tokens, mapping
+ * Dir, File and Symlink directly to the JAXB types. The form Jackson writes
+ * for the JAXB types, a manifests list whose entries have a type
+ * discriminator, is read as well.
  *
  * @author ddhawal
  */
@@ -27,33 +26,94 @@ public class ManifestDeserializer extends JsonDeserializer<Manifest> {
 
     @Override
     public Manifest deserialize(JsonParser jp, DeserializationContext dc) throws IOException {
-        JsonNode manifestNode = jp.getCodec().readTree(jp);
-        ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
-        mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
-        List<ManifestType> manifests = new ArrayList<>();
-        for (Iterator<Map.Entry<String, JsonNode>> nodeIterator = manifestNode.fields(); nodeIterator.hasNext(); ) {
-            Map.Entry<String, JsonNode> nodeEntry = nodeIterator.next();
-            /* Process node tree and add following data in nodes,
-             * type  : this is used to deserialize data, as file and symlink have same structure
-             * */
-            if(nodeEntry.getKey().equals("Dir")) {
-                ((ObjectNode)nodeEntry.getValue()).put("type", "dir");
-                manifests.add(mapper.readValue(nodeEntry.getValue().toString(), Dir.class));
-            } else if(nodeEntry.getKey().equals("File")) {
-                ((ObjectNode)nodeEntry.getValue()).put("type", "file");
-                manifests.add(mapper.readValue(nodeEntry.getValue().toString(), File.class));
-            } else if(nodeEntry.getKey().equals("Symlink")) {
-                ((ObjectNode)nodeEntry.getValue()).put("type", "symlink");
-                manifests.add(mapper.readValue(nodeEntry.getValue().toString(), Symlink.class));
+        Manifest manifest = new Manifest();
+        for (JsonToken token = WmlJsonReader.firstField(jp); token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            String field = WmlJsonReader.normalize(jp.getCurrentName());
+            JsonToken value = jp.nextToken();
+            switch (field) {
+                case "dir":
+                    WmlJsonReader.readEntries(jp, Dir::new, ManifestDeserializer::setField, manifest.getManifests());
+                    break;
+                case "file":
+                    WmlJsonReader.readEntries(jp, File::new, ManifestDeserializer::setField, manifest.getManifests());
+                    break;
+                case "symlink":
+                    WmlJsonReader.readEntries(jp, Symlink::new, ManifestDeserializer::setField, manifest.getManifests());
+                    break;
+                case "manifests":
+                    WmlJsonReader.readTypedEntries(jp, ManifestDeserializer::newEntry, ManifestDeserializer::setField, manifest.getManifests());
+                    break;
+                case "digestalg":
+                    manifest.setDigestAlg(jp.getValueAsString());
+                    break;
+                case "label":
+                    manifest.setLabel(jp.getValueAsString());
+                    break;
+                case "uuid":
+                    manifest.setUuid(jp.getValueAsString());
+                    break;
+                default:
+                    if (!value.isScalarValue()) {
+                        throw WmlJsonReader.unknownElement(jp, jp.getCurrentName());
+                    }
             }
         }
-        Manifest manifest = mapper.readValue(manifestNode.toString(), Manifest.class);
-        manifest.getManifests().addAll(manifests);
-        try {
-            log.debug("ManifestDeserializer: Deserialize manifest - {}", ManifestUtils.getManifestString(manifest));
-        } catch (JAXBException e) {
-            log.error("Unable to deserialize manifest", e);
+        if (log.isDebugEnabled()) {
+            try {
+                log.debug("ManifestDeserializer: Deserialize manifest - {}", ManifestUtils.getManifestString(manifest));
+            } catch (JAXBException e) {
+                log.error("Unable to deserialize manifest", e);
+            }
         }
         return manifest;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return a new entry for the type discriminator Jackson writes, or null
+     */
+    private static ManifestType newEntry(String type) {
+        switch (type) {
+            case "dir":
+                return new Dir();
+            case "file":
+                return new File();
+            case "symlink":
+                return new Symlink();
+            default:
+                return null;
+        }
+    }
+
+    private static void setField(ManifestType entry, String name, String value) {
+        switch (name) {
+            case "value":
+                entry.setValue(value);
+                break;
+            case "path":
+                entry.setPath(value);
+                break;
+            case "searchtype":
+                entry.setSearchType(value);
+                break;
+            default:
+                if (entry instanceof Dir) {
+                    setDirectoryField((Dir) entry, name, value);
+                }
+        }
+    }
+
+    private static void setDirectoryField(Dir entry, String name, String value) {
+        switch (name) {
+            case "include":
+                entry.setInclude(value);
+                break;
+            case "exclude":
+                entry.setExclude(value);
+                break;
+            case "filtertype":
+                entry.setFilterType(value);
+                break;
+            default:
+        }
+    }
+}
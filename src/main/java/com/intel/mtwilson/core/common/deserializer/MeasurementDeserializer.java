@@ -5,20 +5,19 @@
 package com.intel.mtwilson.core.common.deserializer;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.*;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.intel.mtwilson.core.common.utils.MeasurementUtils;
-import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
 import com.intel.wml.measurement.xml.*;
 
 import javax.xml.bind.JAXBException;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 
 /**
+ * Reads a measurement in a single pass over the parser tokens, mapping
+ * Dir, File, Symlink and CumulativeHash directly to the JAXB types. The
+ * form Jackson writes for the JAXB types, a measurements list whose entries
+ * have a type discriminator and a cumulative_hash object, is read as well.
  *
  * @author ddhawal
  */
@@ -27,44 +26,103 @@ public class MeasurementDeserializer extends JsonDeserializer<Measurement> {
 
     @Override
     public Measurement deserialize(JsonParser jp, DeserializationContext dc) throws IOException {
-        JsonNode measureNode = jp.getCodec().readTree(jp);
-        ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
-        mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        Measurement measurement = new Measurement();
         CumulativeHashType cumulativeHash = new CumulativeHashType();
-        List<MeasurementType> measurements = new ArrayList<>();
-        for (Iterator<Map.Entry<String, JsonNode>> nodeIterator = measureNode.fields(); nodeIterator.hasNext(); ) {
-            Map.Entry<String, JsonNode> nodeEntry = nodeIterator.next();
-            /* Process node tree and add following data in nodes,
-            * type  : this is used to deserialize data, as file and symlink have same structure
-            * value : node reader, reads it as blank key, hence key with name "value" is added
-            * CumulativeHash is removed and added to measurement directly as it needs similar format of file or symlink
-            * */
-            if(nodeEntry.getKey().equals("Dir")) {
-                ((ObjectNode)nodeEntry.getValue()).put("type", "directoryMeasurementType");
-                ((ObjectNode)nodeEntry.getValue()).put("value", nodeEntry.getValue().get("").asText());
-                measurements.add(mapper.readValue(nodeEntry.getValue().toString(), DirectoryMeasurementType.class));
-            } else if(nodeEntry.getKey().equals("File")) {
-                ((ObjectNode)nodeEntry.getValue()).put("type", "fileMeasurementType");
-                ((ObjectNode)nodeEntry.getValue()).put("value", nodeEntry.getValue().get("").asText());
-                measurements.add(mapper.readValue(nodeEntry.getValue().toString(), FileMeasurementType.class));
-            } else if(nodeEntry.getKey().equals("Symlink")) {
-                ((ObjectNode)nodeEntry.getValue()).put("type", "symlinkMeasurementType");
-                ((ObjectNode)nodeEntry.getValue()).put("value", nodeEntry.getValue().get("").asText());
-                measurements.add(mapper.readValue(nodeEntry.getValue().toString(), SymlinkMeasurementType.class));
-            }else if(nodeEntry.getKey().equals("CumulativeHash")) {
-                cumulativeHash.setValue(nodeEntry.getValue().asText());
-                nodeIterator.remove();
+        measurement.setCumulativeHash(cumulativeHash);
+        for (JsonToken token = WmlJsonReader.firstField(jp); token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            String field = WmlJsonReader.normalize(jp.getCurrentName());
+            JsonToken value = jp.nextToken();
+            switch (field) {
+                case "dir":
+                    WmlJsonReader.readEntries(jp, DirectoryMeasurementType::new, MeasurementDeserializer::setField, measurement.getMeasurements());
+                    break;
+                case "file":
+                    WmlJsonReader.readEntries(jp, FileMeasurementType::new, MeasurementDeserializer::setField, measurement.getMeasurements());
+                    break;
+                case "symlink":
+                    WmlJsonReader.readEntries(jp, SymlinkMeasurementType::new, MeasurementDeserializer::setField, measurement.getMeasurements());
+                    break;
+                case "measurements":
+                    WmlJsonReader.readTypedEntries(jp, MeasurementDeserializer::newEntry, MeasurementDeserializer::setField, measurement.getMeasurements());
+                    break;
+                case "cumulativehash":
+                    WmlJsonReader.readFields(jp, (name, text) -> {
+                        if ("value".equals(name)) {
+                            cumulativeHash.setValue(text);
+                        }
+                    });
+                    break;
+                case "digestalg":
+                    measurement.setDigestAlg(jp.getValueAsString());
+                    break;
+                case "label":
+                    measurement.setLabel(jp.getValueAsString());
+                    break;
+                case "uuid":
+                    measurement.setUuid(jp.getValueAsString());
+                    break;
+                default:
+                    if (!value.isScalarValue()) {
+                        throw WmlJsonReader.unknownElement(jp, jp.getCurrentName());
+                    }
             }
         }
-
-        Measurement measurement = mapper.readValue(measureNode.toString(), Measurement.class);
-        measurement.setCumulativeHash(cumulativeHash);
-        measurement.getMeasurements().addAll(measurements);
-        try {
-            log.debug("MeasurementDeserializer: Deserialize Measurement - {}", MeasurementUtils.getMeasurementString(measurement));
-        } catch (JAXBException e) {
-            log.error("Unable to deserialize Measurement", e);
+        if (log.isDebugEnabled()) {
+            try {
+                log.debug("MeasurementDeserializer: Deserialize Measurement - {}", MeasurementUtils.getMeasurementString(measurement));
+            } catch (JAXBException e) {
+                log.error("Unable to deserialize Measurement", e);
+            }
         }
         return measurement;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return a new entry for the type discriminator Jackson writes, or null
+     */
+    private static MeasurementType newEntry(String type) {
+        switch (type) {
+            case "directorymeasurementtype":
+                return new DirectoryMeasurementType();
+            case "filemeasurementtype":
+                return new FileMeasurementType();
+            case "symlinkmeasurementtype":
+                return new SymlinkMeasurementType();
+            default:
+                return null;
+        }
+    }
+
+    private static void setField(MeasurementType entry, String name, String value) {
+        switch (name) {
+            case "value":
+                entry.setValue(value);
+                break;
+            case "path":
+                entry.setPath(value);
+                break;
+            case "searchtype":
+                entry.setSearchType(value);
+                break;
+            default:
+                if (entry instanceof DirectoryMeasurementType) {
+                    setDirectoryField((DirectoryMeasurementType) entry, name, value);
+                }
+        }
+    }
+
+    private static void setDirectoryField(DirectoryMeasurementType entry, String name, String value) {
+        switch (name) {
+            case "include":
+                entry.setInclude(value);
+                break;
+            case "exclude":
+                entry.setExclude(value);
+                break;
+            case "filtertype":
+                entry.setFilterType(value);
+                break;
+            default:
+        }
+    }
+}
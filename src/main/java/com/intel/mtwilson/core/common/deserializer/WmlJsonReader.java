@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.deserializer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Token-level helpers shared by the WML measurement and manifest
+ * deserializers.
+ *
+ * Field names are normalized to lower case without underscores, so the
+ * attribute names of the XML documents ("DigestAlg"), their JSON property
+ * names ("digest_alg") and the element text, which the XML parser reports as
+ * a field with an empty name, are all recognized. Documents written by
+ * Jackson from the JAXB types, with a list of entries that each carry a
+ * "type" discriminator, are read with {@link #readTypedEntries}.
+ */
+final class WmlJsonReader {
+
+    interface FieldHandler {
+        void onField(String name, String value);
+    }
+
+    private WmlJsonReader() {
+    }
+
+    static String normalize(String fieldName) {
+        if (fieldName == null || fieldName.isEmpty()) {
+            return "value";
+        }
+        return fieldName.replace("_", "").toLowerCase();
+    }
+
+    /**
+     * Positions the parser on the first field of the object being deserialized.
+     *
+     * @return the current token, FIELD_NAME unless the object is empty
+     */
+    static JsonToken firstField(JsonParser jp) throws IOException {
+        JsonToken token = jp.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jp.nextToken();
+        }
+        return token;
+    }
+
+    /**
+     * Reads the scalar fields of the object at the current token and skips
+     * nested structures. A scalar in place of the object is reported as its
+     * "value" field, which is how an element with text and no attributes
+     * appears.
+     */
+    static void readFields(JsonParser jp, FieldHandler handler) throws IOException {
+        JsonToken token = jp.getCurrentToken();
+        if (token != null && token.isScalarValue()) {
+            handler.onField("value", jp.getValueAsString());
+            return;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            jp.skipChildren();
+            return;
+        }
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String name = normalize(jp.getCurrentName());
+            if (jp.nextToken().isScalarValue()) {
+                handler.onField(name, jp.getValueAsString());
+            } else {
+                jp.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Reads one entry, or each entry of an array, at the current token and
+     * adds it to the list.
+     */
+    static <T> void readEntries(JsonParser jp, Supplier<T> factory, EntryPopulator<T> populator, List<? super T> entries) throws IOException {
+        if (jp.getCurrentToken() == JsonToken.START_ARRAY) {
+            while (jp.nextToken() != JsonToken.END_ARRAY) {
+                entries.add(readEntry(jp, factory, populator));
+            }
+        } else {
+            entries.add(readEntry(jp, factory, populator));
+        }
+    }
+
+    /**
+     * Reads one entry, or each entry of an array, at the current token, using
+     * its "type" field to choose the entry class, and adds it to the list.
+     *
+     * @param factory returns a new entry for the lower case type, or null if the type is unknown
+     * @throws JsonMappingException if an entry has no type or an unknown type
+     */
+    static <T> void readTypedEntries(JsonParser jp, Function<String, T> factory, EntryPopulator<T> populator, List<? super T> entries) throws IOException {
+        if (jp.getCurrentToken() == JsonToken.START_ARRAY) {
+            while (jp.nextToken() != JsonToken.END_ARRAY) {
+                entries.add(readTypedEntry(jp, factory, populator));
+            }
+        } else if (jp.getCurrentToken() != JsonToken.VALUE_NULL) {
+            entries.add(readTypedEntry(jp, factory, populator));
+        }
+    }
+
+    private static <T> T readTypedEntry(JsonParser jp, Function<String, T> factory, EntryPopulator<T> populator) throws IOException {
+        Map<String, String> fields = new LinkedHashMap<>();
+        readFields(jp, fields::put);
+        String type = fields.remove("type");
+        T entry = type == null ? null : factory.apply(type.toLowerCase(Locale.ROOT));
+        if (entry == null) {
+            throw JsonMappingException.from(jp, "Unknown entry type: " + type);
+        }
+        fields.forEach((name, value) -> populator.set(entry, name, value));
+        return entry;
+    }
+
+    /**
+     * @return the error for a nested element or list the deserializer does
+     * not know; unknown scalar fields are attributes, such as namespace
+     * declarations, and are ignored
+     */
+    static JsonMappingException unknownElement(JsonParser jp, String name) {
+        return JsonMappingException.from(jp, "Unrecognized element: " + name);
+    }
+
+    private static <T> T readEntry(JsonParser jp, Supplier<T> factory, EntryPopulator<T> populator) throws IOException {
+        T entry = factory.get();
+        readFields(jp, (name, value) -> populator.set(entry, name, value));
+        return entry;
+    }
+
+    interface EntryPopulator<T> {
+        void set(T entry, String name, String value);
+    }
+}
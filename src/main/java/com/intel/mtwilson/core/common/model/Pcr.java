@@ -29,7 +29,8 @@ import java.util.Objects;
               property = "digest_type")
 @JsonSubTypes({
     @Type(value = PcrSha1.class),
-    @Type(value = PcrSha256.class)
+    @Type(value = PcrSha256.class),
+    @Type(value = PcrSha384.class)
 })
 public abstract class Pcr<T extends AbstractDigest> extends ObjectModel {
     private final PcrIndex pcrIndex;          
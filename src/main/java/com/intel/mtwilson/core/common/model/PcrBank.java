@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.model;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact storage for the PCR values of one bank. All 24 values are kept in
+ * a single byte array, with a bitmask recording which PCRs are present, so a
+ * bank costs two objects no matter how many PCRs it holds. PcrManifest stores
+ * its PCR values this way; {@link PcrManifest#toPcrBank(DigestAlgorithm)} and
+ * {@link PcrManifest#setPcrs(PcrBank)} copy a bank out of and into a manifest.
+ *
+ * {@link Pcr} objects are only created when {@link #getPcr(int)} or
+ * {@link #getPcrs()} is called; {@link #getValue(int)},
+ * {@link #valueEquals(int, byte[])} and {@link #getPresenceMask()} give access
+ * to the values without allocating them.
+ *
+ * This class is not thread-safe.
+ */
+public final class PcrBank {
+    public static final int PCR_COUNT = PcrIndex.MAX_VALUE + 1;
+
+    private final DigestAlgorithm bank;
+    private final int digestLength;
+    private final byte[] values;
+    private int presenceMask;
+
+    public PcrBank(DigestAlgorithm bank) {
+        this.bank = bank;
+        this.digestLength = PcrBankType.valueOf(bank).getDigestLength();
+        this.values = new byte[PCR_COUNT * digestLength];
+    }
+
+    private PcrBank(PcrBank other) {
+        this.bank = other.bank;
+        this.digestLength = other.digestLength;
+        this.values = other.values.clone();
+        this.presenceMask = other.presenceMask;
+    }
+
+    /**
+     * Copies the PCR values of one bank of the manifest.
+     */
+    public static PcrBank valueOf(PcrManifest pcrManifest, DigestAlgorithm bank) {
+        return pcrManifest.toPcrBank(bank);
+    }
+
+    public PcrBank copy() {
+        return new PcrBank(this);
+    }
+
+    public DigestAlgorithm getPcrBank() {
+        return bank;
+    }
+
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    /**
+     * @return bitmask with bit i set if PCR i is present
+     */
+    public int getPresenceMask() {
+        return presenceMask;
+    }
+
+    public int size() {
+        return Integer.bitCount(presenceMask);
+    }
+
+    public boolean isEmpty() {
+        return presenceMask == 0;
+    }
+
+    public boolean containsPcr(int index) {
+        return index >= 0 && index < PCR_COUNT && (presenceMask & (1 << index)) != 0;
+    }
+
+    public void setPcr(Pcr pcr) {
+        if (pcr.getPcrBank() != bank) {
+            throw new IllegalArgumentException(String.format("Cannot store %s PCR in %s bank", pcr.getPcrBank(), bank));
+        }
+        setValue(pcr.getIndex().toInteger(), pcr.getValue().toByteArray());
+    }
+
+    public void setValue(int index, byte[] value) {
+        checkIndex(index);
+        if (value == null || value.length != digestLength) {
+            throw new IllegalArgumentException(String.format("%s PCR value must be %d bytes", bank, digestLength));
+        }
+        System.arraycopy(value, 0, values, index * digestLength, digestLength);
+        presenceMask |= 1 << index;
+    }
+
+    public void clearPcr(int index) {
+        checkIndex(index);
+        Arrays.fill(values, index * digestLength, (index + 1) * digestLength, (byte) 0);
+        presenceMask &= ~(1 << index);
+    }
+
+    /**
+     * @return a copy of the PCR value, or null if the PCR is not present
+     */
+    public byte[] getValue(int index) {
+        if (!containsPcr(index)) {
+            return null;
+        }
+        return Arrays.copyOfRange(values, index * digestLength, (index + 1) * digestLength);
+    }
+
+    /**
+     * Copies the PCR value into the destination array, which must have room
+     * for {@link #getDigestLength()} bytes at the offset.
+     *
+     * @return false if the PCR is not present
+     */
+    public boolean copyValue(int index, byte[] destination, int offset) {
+        if (!containsPcr(index)) {
+            return false;
+        }
+        System.arraycopy(values, index * digestLength, destination, offset, digestLength);
+        return true;
+    }
+
+    /**
+     * Compares a PCR to a value without copying it.
+     *
+     * @return true if the PCR is present and equal to the value
+     */
+    public boolean valueEquals(int index, byte[] value) {
+        if (!containsPcr(index) || value == null || value.length != digestLength) {
+            return false;
+        }
+        int offset = index * digestLength;
+        int diff = 0;
+        for (int i = 0; i < digestLength; i++) {
+            diff |= values[offset + i] ^ value[i];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Compares a PCR to the same PCR of another bank without copying either value.
+     *
+     * @return true if the PCR is present in both banks with the same value
+     */
+    boolean valueEquals(int index, PcrBank other) {
+        if (!containsPcr(index) || !other.containsPcr(index) || digestLength != other.digestLength) {
+            return false;
+        }
+        int offset = index * digestLength;
+        int diff = 0;
+        for (int i = 0; i < digestLength; i++) {
+            diff |= values[offset + i] ^ other.values[offset + i];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * @return a new Pcr holding the value, or null if the PCR is not present
+     */
+    public Pcr getPcr(int index) {
+        byte[] value = getValue(index);
+        return value == null ? null : PcrFactory.newInstance(bank, PcrIndex.valueOf(index), value);
+    }
+
+    /**
+     * @return new Pcr objects for the present PCRs, in index order
+     */
+    public List<Pcr> getPcrs() {
+        List<Pcr> pcrs = new ArrayList<>(size());
+        for (int mask = presenceMask; mask != 0; mask &= mask - 1) {
+            pcrs.add(getPcr(Integer.numberOfTrailingZeros(mask)));
+        }
+        return pcrs;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PcrBank)) {
+            return false;
+        }
+        PcrBank other = (PcrBank) obj;
+        return bank == other.bank && presenceMask == other.presenceMask && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * bank.hashCode() + presenceMask) + Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s bank with %d PCRs", bank, size());
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= PCR_COUNT) {
+            throw new IndexOutOfBoundsException("PCR index: " + index);
+        }
+    }
+}
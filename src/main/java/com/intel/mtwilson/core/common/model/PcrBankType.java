@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.model;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.crypto.Sha1Digest;
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import com.intel.dcsg.cpg.crypto.Sha384Digest;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The PCR banks supported by the model classes, each one knowing how to
+ * create its own Pcr, PcrEventLog and Measurement types. PcrManifest,
+ * PcrFactory and PcrEventLogFactory dispatch through this enum, so adding a
+ * bank only means adding a constant here and its model classes.
+ */
+public enum PcrBankType {
+    SHA1(DigestAlgorithm.SHA1, "SHA-1", 20) {
+        @Override
+        public Pcr newPcr(PcrIndex index, byte[] value) {
+            return new PcrSha1(index, value);
+        }
+
+        @Override
+        public Pcr newPcr(PcrIndex index, String value) {
+            return new PcrSha1(index, value);
+        }
+
+        @Override
+        public PcrEventLog newPcrEventLog(PcrIndex index, List modules) {
+            return new PcrEventLogSha1(index, modules);
+        }
+
+        @Override
+        public Measurement newMeasurement(String value, String label, Map<String, String> info) {
+            return new MeasurementSha1(new Sha1Digest(value), label, info);
+        }
+    },
+    SHA256(DigestAlgorithm.SHA256, "SHA-256", 32) {
+        @Override
+        public Pcr newPcr(PcrIndex index, byte[] value) {
+            return new PcrSha256(index, value);
+        }
+
+        @Override
+        public Pcr newPcr(PcrIndex index, String value) {
+            return new PcrSha256(index, value);
+        }
+
+        @Override
+        public PcrEventLog newPcrEventLog(PcrIndex index, List modules) {
+            return new PcrEventLogSha256(index, modules);
+        }
+
+        @Override
+        public Measurement newMeasurement(String value, String label, Map<String, String> info) {
+            return new MeasurementSha256(new Sha256Digest(value), label, info);
+        }
+    },
+    SHA384(DigestAlgorithm.SHA384, "SHA-384", 48) {
+        @Override
+        public Pcr newPcr(PcrIndex index, byte[] value) {
+            return new PcrSha384(index, value);
+        }
+
+        @Override
+        public Pcr newPcr(PcrIndex index, String value) {
+            return new PcrSha384(index, value);
+        }
+
+        @Override
+        public PcrEventLog newPcrEventLog(PcrIndex index, List modules) {
+            return new PcrEventLogSha384(index, modules);
+        }
+
+        @Override
+        public Measurement newMeasurement(String value, String label, Map<String, String> info) {
+            return new MeasurementSha384(new Sha384Digest(value), label, info);
+        }
+    };
+
+    private static final Map<DigestAlgorithm, PcrBankType> BY_ALGORITHM = new EnumMap<>(DigestAlgorithm.class);
+    static {
+        for (PcrBankType type : values()) {
+            BY_ALGORITHM.put(type.algorithm, type);
+        }
+    }
+
+    private final DigestAlgorithm algorithm;
+    private final String messageDigestAlgorithm;
+    private final int digestLength;
+
+    PcrBankType(DigestAlgorithm algorithm, String messageDigestAlgorithm, int digestLength) {
+        this.algorithm = algorithm;
+        this.messageDigestAlgorithm = messageDigestAlgorithm;
+        this.digestLength = digestLength;
+    }
+
+    public DigestAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return the name of the algorithm for {@link java.security.MessageDigest#getInstance(java.lang.String)}
+     */
+    public String getMessageDigestAlgorithm() {
+        return messageDigestAlgorithm;
+    }
+
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    public abstract Pcr newPcr(PcrIndex index, byte[] value);
+
+    public abstract Pcr newPcr(PcrIndex index, String value);
+
+    public abstract PcrEventLog newPcrEventLog(PcrIndex index, List modules);
+
+    public abstract Measurement newMeasurement(String value, String label, Map<String, String> info);
+
+    /**
+     * @throws UnsupportedOperationException if there is no model for the bank
+     */
+    public static PcrBankType valueOf(DigestAlgorithm algorithm) {
+        PcrBankType type = BY_ALGORITHM.get(algorithm);
+        if (type == null) {
+            throw new UnsupportedOperationException("PCRBank: " + algorithm + " not currently supported");
+        }
+        return type;
+    }
+
+    public static boolean isSupported(DigestAlgorithm algorithm) {
+        return BY_ALGORITHM.containsKey(algorithm);
+    }
+
+    public static Set<DigestAlgorithm> supportedAlgorithms() {
+        return Collections.unmodifiableSet(BY_ALGORITHM.keySet());
+    }
+}
@@ -38,7 +38,8 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
         property = "digest_type")
 @JsonSubTypes({
     @JsonSubTypes.Type(value = PcrEventLogSha1.class),
-    @JsonSubTypes.Type(value = PcrEventLogSha256.class)
+    @JsonSubTypes.Type(value = PcrEventLogSha256.class),
+    @JsonSubTypes.Type(value = PcrEventLogSha384.class)
 })
 public abstract class PcrEventLog<T extends Measurement> extends ObjectModel {
     private final PcrIndex pcrIndex;
@@ -17,14 +17,7 @@ public class PcrEventLogFactory {
     }
     
     public static PcrEventLog newInstance(DigestAlgorithm bank, PcrIndex index, List modules) {
-        switch(bank) {
-            case SHA1:
-                return new PcrEventLogSha1(index, modules);
-            case SHA256:
-                return new PcrEventLogSha256(index, modules);
-            default:
-                throw new UnsupportedOperationException("PCRBank: " + bank + " not currently supported");
-        }
+        return PcrBankType.valueOf(bank).newPcrEventLog(index, modules);
     }
     
     public static PcrEventLog newInstance(String bank, PcrIndex index, List modules) {
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import java.util.List;
+/**
+ * The event log of a PCR of the SHA384 bank.
+ */
+public class PcrEventLogSha384 extends PcrEventLog<MeasurementSha384> {
+    
+    public PcrEventLogSha384(PcrIndex pcrIndex) {
+        super(pcrIndex);
+    }
+    
+    @JsonCreator
+    public PcrEventLogSha384(@JsonProperty("pcr_index") PcrIndex pcrIndex, @JsonProperty("event_log") List<MeasurementSha384> moduleManifest) {
+        super(pcrIndex, moduleManifest);        
+    }
+    
+    @Override
+    public DigestAlgorithm getPcrBank() {
+        return DigestAlgorithm.SHA384;
+    }
+}
@@ -12,14 +12,7 @@ import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
  */
 public class PcrFactory {
     public static Pcr newInstance(DigestAlgorithm algorithm, PcrIndex index, String value) {
-        switch(algorithm) {
-            case SHA1:
-                return new PcrSha1(index, value);
-            case SHA256:
-                return new PcrSha256(index, value);
-            default:
-                throw new UnsupportedOperationException("algorithm: " + algorithm + " not implemented yet");
-        }
+        return PcrBankType.valueOf(algorithm).newPcr(index, value);
     }
     
     public static Pcr newInstance(String algorithm, PcrIndex index, String value) {
@@ -27,14 +20,7 @@ public class PcrFactory {
     }
     
     public static Pcr newInstance(DigestAlgorithm algorithm, PcrIndex index, byte[] value) {
-        switch (algorithm) {
-            case SHA1:
-                return new PcrSha1(index, value);
-            case SHA256:
-                return new PcrSha256(index, value);
-            default:
-                throw new UnsupportedOperationException("algorithm: " + algorithm + " not implemented yet");
-        }
+        return PcrBankType.valueOf(algorithm).newPcr(index, value);
     }
     
     public static Pcr newInstance(String algorithm, PcrIndex index, byte[] value) {
@@ -6,15 +6,17 @@ package com.intel.mtwilson.core.common.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.intel.dcsg.cpg.validation.ObjectModel;
 import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
-import com.intel.dcsg.cpg.crypto.Sha1Digest;
-import com.intel.dcsg.cpg.crypto.Sha256Digest;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * The PcrManifest class represents a list of PCR numbers, their values,
@@ -35,6 +37,14 @@ import java.util.Map;
  * In order to store event information, there must be a value stored
  * for the PCR as well.
  * 
+ * PCR values are stored packed, one {@link PcrBank} per bank, so a manifest
+ * does not keep a Pcr object per PCR. The Pcr objects returned by getPcr and
+ * getPcrs are created on each call from the stored values. A Pcr whose value
+ * is null or not a digest of the length of its bank is kept as given instead,
+ * so that a manifest with such a PCR can still be deserialized and
+ * {@link #validate()} reports it; these PCRs are not part of
+ * {@link #toPcrBank(DigestAlgorithm)}.
+ * 
  * The equals() method has not been defined for this class. Do NOT use equals()
  * to determine if two PcrManifest instances have the same contents.
  * 
@@ -46,19 +56,36 @@ import java.util.Map;
  */
 @JsonIgnoreProperties({"pcrs", "pcr_event_logs"})
 public class PcrManifest extends ObjectModel {
-    private final PcrSha1[] sha1pcrs = new PcrSha1[24];    
-    private final PcrSha256[] sha2pcrs = new PcrSha256[24];
+    /** banks without PCRs are not in the map */
+    private final EnumMap<DigestAlgorithm, PcrBank> pcrBanks = new EnumMap<>(DigestAlgorithm.class);
+    private final EnumMap<DigestAlgorithm, PcrEventLog[]> pcrEventLogBanks = new EnumMap<>(DigestAlgorithm.class);
+    /** PCRs whose value cannot be packed, indexed by PCR; banks without such PCRs are not in the map */
+    private final EnumMap<DigestAlgorithm, Pcr[]> unpackedPcrBanks = new EnumMap<>(DigestAlgorithm.class);
 
-    private final PcrEventLogSha1[] pcrEventLogsSha1 = new PcrEventLogSha1[24];
-    private final PcrEventLogSha256[] pcrEventLogsSha256 = new PcrEventLogSha256[24];
+    public PcrManifest() {
+        for (PcrBankType type : PcrBankType.values()) {
+            pcrEventLogBanks.put(type.getAlgorithm(), new PcrEventLog[PcrBank.PCR_COUNT]);
+        }
+    }
 
+    /**
+     * Stores the value of the PCR in the bank, replacing the PCR with the
+     * same index. A PCR with an invalid value is stored as well, see
+     * {@link #validate()}.
+     */
     public void setPcr(DigestAlgorithm bank, Pcr pcr) {
-        switch(bank) {
-            case SHA256:
-                sha2pcrs[pcr.getIndex().toInteger()] = (PcrSha256)pcr;
-                break;
-            default:
-                sha1pcrs[pcr.getIndex().toInteger()] = (PcrSha1)pcr;
+        PcrBankType type = PcrBankType.valueOf(bank);
+        int index = pcr.getIndex().toInteger();
+        byte[] value = pcr.getValue() == null ? null : pcr.getValue().toByteArray();
+        if (value != null && value.length == type.getDigestLength()) {
+            getOrCreatePcrBank(bank).setValue(index, value);
+            clearUnpackedPcr(type.getAlgorithm(), index);
+        } else {
+            PcrBank pcrBank = pcrBanks.get(type.getAlgorithm());
+            if (pcrBank != null) {
+                pcrBank.clearPcr(index);
+            }
+            unpackedPcrBanks.computeIfAbsent(type.getAlgorithm(), key -> new Pcr[PcrBank.PCR_COUNT])[index] = pcr;
         }
     }
     
@@ -67,17 +94,17 @@ public class PcrManifest extends ObjectModel {
     }
             
     public Pcr getPcr(DigestAlgorithm bank, int index) {
-        switch(bank) {
-            case SHA256:                
-                    return (containsPcr(bank, PcrIndex.valueOf(index))) ? sha2pcrs[index] : null;
-            default:
-                return (containsPcr(bank, PcrIndex.valueOf(index))) ? sha1pcrs[index] : null;
+        Pcr[] unpacked = unpackedPcrBanks.get(bank);
+        if (unpacked != null && unpacked[index] != null) {
+            return unpacked[index];
         }
+        PcrBank pcrBank = pcrBanks.get(bank);
+        return pcrBank == null ? null : pcrBank.getPcr(index);
     }
     
     @Deprecated
     public Pcr getPcr(int index) {
-        return sha1pcrs[index];
+        return getPcr(DigestAlgorithm.SHA1, index);
     }
 
     public Pcr getPcr(DigestAlgorithm bank, PcrIndex pcrIndex) {
@@ -90,123 +117,152 @@ public class PcrManifest extends ObjectModel {
     }
     
     /**
+     * The SHA1 and SHA256 PCRs are always present in the map, other banks
+     * only when they have PCRs.
      *
      * @return
      */
     @JsonIgnore
     public Map<DigestAlgorithm, List<Pcr>> getPcrsMap() {
         Map<DigestAlgorithm, List<Pcr>> pcrsMap = new LinkedHashMap<>();
-        
-        List<Pcr> sha1 = new ArrayList<>();
-        for(PcrSha1 pcr : sha1pcrs) {
-            if(pcr != null) {
-                sha1.add(pcr);
-            }
-        }
-        
-        List<Pcr> sha2 = new ArrayList<>();
-        for (PcrSha256 pcr : sha2pcrs) {
-            if(pcr != null) {
-                sha2.add(pcr);
+        for (DigestAlgorithm bank : PcrBankType.supportedAlgorithms()) {
+            List<Pcr> pcrs = getPcrs(bank);
+            if (!pcrs.isEmpty() || bank == DigestAlgorithm.SHA1 || bank == DigestAlgorithm.SHA256) {
+                pcrsMap.put(bank, pcrs);
             }
         }
-        
-        pcrsMap.put(DigestAlgorithm.SHA1, sha1);
-        pcrsMap.put(DigestAlgorithm.SHA256, sha2);
-        
         return pcrsMap;
     }
     
+    /**
+     * The SHA1 and SHA256 event logs are always present in the map, other
+     * banks only when they have event logs.
+     */
     public Map<DigestAlgorithm, List<PcrEventLog>> getPcrEventLogMap() {
         Map<DigestAlgorithm, List<PcrEventLog>> eventLogMap = new LinkedHashMap<>();
-        
-        List<PcrEventLog> sha1 = getPcrEventLogs(DigestAlgorithm.SHA1);        
-        List<PcrEventLog> sha2 = getPcrEventLogs(DigestAlgorithm.SHA256);
-        
-        eventLogMap.put(DigestAlgorithm.SHA1, sha1);
-        eventLogMap.put(DigestAlgorithm.SHA256, sha2);
-        
+        for (DigestAlgorithm bank : pcrEventLogBanks.keySet()) {
+            List<PcrEventLog> logs = getPcrEventLogs(bank);
+            if (!logs.isEmpty() || bank == DigestAlgorithm.SHA1 || bank == DigestAlgorithm.SHA256) {
+                eventLogMap.put(bank, logs);
+            }
+        }
         return eventLogMap;
     }
     
     public void setPcrEventLogMap(Map<DigestAlgorithm, List<PcrEventLog>> eventLogMap) {
-        if (eventLogMap.get(DigestAlgorithm.SHA1) != null) {
-            eventLogMap.get(DigestAlgorithm.SHA1).stream().forEach((pcrEventLog) -> {
-                setPcrEventLog(DigestAlgorithm.SHA1, pcrEventLog);
-            });
-        }
-        if (eventLogMap.get(DigestAlgorithm.SHA256) != null) {
-            eventLogMap.get(DigestAlgorithm.SHA256).stream().forEach((pcrEventLog) -> {
-                setPcrEventLog(DigestAlgorithm.SHA256, pcrEventLog);
-            });
-        }
+        eventLogMap.forEach((bank, logs) -> {
+            if (logs != null) {
+                logs.stream().forEach((pcrEventLog) -> {
+                    setPcrEventLog(bank, pcrEventLog);
+                });
+            }
+        });
     }
     
     public List<Pcr> getSha1pcrs() {
-        List<Pcr> pcrs = new ArrayList<>();
-        for(Pcr pcr : sha1pcrs) {
-            if(pcr != null) {
-                pcrs.add(pcr);
-            }
-        }
-              
-        return pcrs;
+        return getPcrs(DigestAlgorithm.SHA1);
     }
 
     public List<Pcr> getSha2pcrs() {
-        List<Pcr> pcrs = new ArrayList<>();
-        for(Pcr pcr: sha2pcrs) {
-            if(pcr != null) {
-                pcrs.add(pcr);
-            }
-        }
-        
-        return pcrs;
+        return getPcrs(DigestAlgorithm.SHA256);
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public List<Pcr> getSha384pcrs() {
+        return getPcrs(DigestAlgorithm.SHA384);
     }
     
     public List<Pcr> getPcrs() {
         List<Pcr> pcrs = new ArrayList<>();
-        for(Pcr pcr : sha1pcrs) {
-            if(pcr != null) {
-                pcrs.add(pcr);
-            }
+        for (PcrBankType type : PcrBankType.values()) {
+            pcrs.addAll(getPcrs(type.getAlgorithm()));
         }
-        
-        for(Pcr pcr: sha2pcrs) {
-            if(pcr != null) {
-                pcrs.add(pcr);
-            }
-        }
-        
         return pcrs;
     }
     
     public List<Pcr> getPcrs(DigestAlgorithm bank) {        
-        Pcr[] p = bank == DigestAlgorithm.SHA256 ? sha2pcrs : sha1pcrs;
-        
-        ArrayList<Pcr> pcrsList = new ArrayList<>();
-        for (Pcr pcr : p) {
-            if (pcr != null)
-                pcrsList.add(pcr);
-        }        
-        return pcrsList;
+        PcrBank pcrBank = getPcrBank(bank);
+        Pcr[] unpacked = unpackedPcrBanks.get(PcrBankType.valueOf(bank).getAlgorithm());
+        if (unpacked == null) {
+            return pcrBank == null ? new ArrayList<>() : pcrBank.getPcrs();
+        }
+        List<Pcr> pcrs = new ArrayList<>();
+        for (int index = 0; index < PcrBank.PCR_COUNT; index++) {
+            if (unpacked[index] != null) {
+                pcrs.add(unpacked[index]);
+            } else if (pcrBank != null && pcrBank.containsPcr(index)) {
+                pcrs.add(pcrBank.getPcr(index));
+            }
+        }
+        return pcrs;
     }
     
     public void setPcrs(DigestAlgorithm bank, List<Pcr> pcrsList) {
-        Pcr[] p = bank == DigestAlgorithm.SHA256 ? sha2pcrs : sha1pcrs;
-        
-        for (int i = 0; i < 23; i++) {
-            p[i] = null;
-        }
+        pcrBanks.remove(PcrBankType.valueOf(bank).getAlgorithm());
+        unpackedPcrBanks.remove(PcrBankType.valueOf(bank).getAlgorithm());
         for (Pcr pcr : pcrsList) {
             setPcr(bank, pcr);
         }
     }
+
+    /**
+     * Returns a copy of the PCR values of one bank. PCRs with an invalid
+     * value are not included.
+     *
+     * @see PcrBank
+     */
+    public PcrBank toPcrBank(DigestAlgorithm bank) {
+        PcrBank pcrBank = getPcrBank(bank);
+        return pcrBank == null ? new PcrBank(bank) : pcrBank.copy();
+    }
+
+    /**
+     * Replaces the PCR values of the bank with a copy of those in the PcrBank.
+     */
+    public void setPcrs(PcrBank pcrBank) {
+        unpackedPcrBanks.remove(pcrBank.getPcrBank());
+        if (pcrBank.isEmpty()) {
+            pcrBanks.remove(pcrBank.getPcrBank());
+        } else {
+            pcrBanks.put(pcrBank.getPcrBank(), pcrBank.copy());
+        }
+    }
+
+    /**
+     * Compares the PCR values and event logs of every bank with those of
+     * another manifest, without building lists of them.
+     *
+     * @return the PCRs and event logs that differ
+     */
+    public PcrManifestDelta diff(PcrManifest other) {
+        PcrManifestDelta delta = new PcrManifestDelta();
+        for (PcrBankType type : PcrBankType.values()) {
+            DigestAlgorithm bank = type.getAlgorithm();
+            delta.comparePcrs(type, pcrBanks.get(bank), other.pcrBanks.get(bank));
+            Pcr[] unpacked = unpackedPcrBanks.get(bank);
+            Pcr[] otherUnpacked = other.unpackedPcrBanks.get(bank);
+            if (unpacked != null || otherUnpacked != null) {
+                delta.addPcrs(type, unpackedDifference(unpacked, otherUnpacked));
+            }
+            delta.compareEventLogs(type, pcrEventLogBanks.get(bank), other.pcrEventLogBanks.get(bank));
+        }
+        return delta;
+    }
+
+    private static int unpackedDifference(Pcr[] before, Pcr[] after) {
+        int mask = 0;
+        for (int index = 0; index < PcrBank.PCR_COUNT; index++) {
+            if (!Objects.equals(before == null ? null : before[index], after == null ? null : after[index])) {
+                mask |= 1 << index;
+            }
+        }
+        return mask;
+    }
     
     @Deprecated
     public List<PcrEventLog> getPcrEventLogs() {
         ArrayList<PcrEventLog> pcrEventLogsList = new ArrayList<>();
-        for (PcrEventLog pcrEventLog : pcrEventLogsSha1) {
+        for (PcrEventLog pcrEventLog : getEventLogBank(DigestAlgorithm.SHA1)) {
             if (pcrEventLog != null)
                 pcrEventLogsList.add(pcrEventLog);
         }
@@ -226,30 +282,29 @@ public class PcrManifest extends ObjectModel {
     
     @Deprecated
     public void setPcrEventLogs(List<PcrEventLog> pcrEventLogsList) {
-        for (int i = 0; i < 23; i++) {
-            pcrEventLogsSha1[i] = null;
-        }
+        Arrays.fill(getEventLogBank(DigestAlgorithm.SHA1), null);
         for (PcrEventLog pcrEventLog : pcrEventLogsList) {
             setPcrEventLog(pcrEventLog);
         }
     }
     
     public void setPcrEventLogs(DigestAlgorithm bank, List<PcrEventLog> pcrEventLogsList) {         
-        for (int i = 0; i < 23; i++) {
-            getEventLogBank(bank)[i] = null;
-        }
+        Arrays.fill(getEventLogBank(bank), null);
         for (PcrEventLog pcrEventLog : pcrEventLogsList) {
             setPcrEventLog(bank, pcrEventLog);
         }
     }
     
+    /**
+     * Removes the PCR from the given bank only; the same PCR in other banks
+     * is kept.
+     */
     public void clearPcr(DigestAlgorithm bank, int index) {
-        switch(bank) {
-            case SHA256:
-                sha2pcrs[index] = null;
-            default:
-                sha1pcrs[index] = null;
+        PcrBank pcrBank = getPcrBank(bank);
+        if (pcrBank != null) {
+            pcrBank.clearPcr(index);
         }
+        clearUnpackedPcr(PcrBankType.valueOf(bank).getAlgorithm(), index);
     }
     
     @Deprecated
@@ -276,7 +331,7 @@ public class PcrManifest extends ObjectModel {
     
     @Deprecated
     public PcrEventLog getPcrEventLog(int index) {
-        return pcrEventLogsSha1[index];
+        return getEventLogBank(DigestAlgorithm.SHA1)[index];
     }
     
     public PcrEventLog getPcrEventLog(String bank, int index) {
@@ -290,7 +345,7 @@ public class PcrManifest extends ObjectModel {
         
     @Deprecated
     public PcrEventLog getPcrEventLog(PcrIndex pcrIndex) {
-        return pcrEventLogsSha1[pcrIndex.toInteger()];
+        return getEventLogBank(DigestAlgorithm.SHA1)[pcrIndex.toInteger()];
     }
     
     public PcrEventLog getPcrEventLog(DigestAlgorithm bank, PcrIndex pcrIndex) {
@@ -299,7 +354,7 @@ public class PcrManifest extends ObjectModel {
     
     @Deprecated
     public void clearPcrEventLog(int index) {
-        pcrEventLogsSha1[index] = null;
+        getEventLogBank(DigestAlgorithm.SHA1)[index] = null;
     }
     
     public void clearPcrEventLog(DigestAlgorithm bank, int index) {
@@ -309,24 +364,23 @@ public class PcrManifest extends ObjectModel {
     
     @Deprecated
     public void clearPcrEventLog(PcrIndex pcrIndex) {
-        pcrEventLogsSha1[pcrIndex.toInteger()] = null;
+        getEventLogBank(DigestAlgorithm.SHA1)[pcrIndex.toInteger()] = null;
     }
        
+    /**
+     * @return true if the bank has a value for the PCR; false for a null or
+     * out of range index and for banks that are not supported
+     */
     public boolean containsPcr(DigestAlgorithm bank, PcrIndex index) {
         if( index == null) return false;
         
-        switch(bank) {
-            case SHA1:
-                if (sha1pcrs.length == 0 || index.toInteger() > sha1pcrs.length)
-                    return false;
-                return sha1pcrs[index.toInteger()] != null;
-            case SHA256:
-                if (sha2pcrs.length == 0 || index.toInteger() > sha2pcrs.length)
-                    return false;
-                return sha2pcrs[index.toInteger()] != null;
-            default:
-                return false;
+        PcrBank pcrBank = pcrBanks.get(bank);
+        if (pcrBank != null && pcrBank.containsPcr(index.toInteger())) {
+            return true;
         }
+        Pcr[] unpacked = unpackedPcrBanks.get(bank);
+        int i = index.toInteger();
+        return unpacked != null && i >= 0 && i < PcrBank.PCR_COUNT && unpacked[i] != null;
     }
     
     /**
@@ -347,7 +401,7 @@ public class PcrManifest extends ObjectModel {
     @Deprecated
     public boolean containsPcrEventLog(PcrIndex index) {
         if( index == null ) { return false; }
-        if( pcrEventLogsSha1[index.toInteger()] == null ) { return false; }
+        if( getEventLogBank(DigestAlgorithm.SHA1)[index.toInteger()] == null ) { return false; }
         return true;
     }
     
@@ -373,16 +427,8 @@ public class PcrManifest extends ObjectModel {
     @Override
     public String toString() {
         String result = "";
-        for (Pcr<Sha1Digest> sha1pcr : sha1pcrs) {
-            if (sha1pcr != null) {
-                result = result.concat(sha1pcr.toString() + "\n");
-            }
-        }
-        
-        for(Pcr<Sha256Digest> p : sha2pcrs) {
-            if(p != null) {
-                result = result.concat(p.toString() + "\n");
-            }
+        for (Pcr pcr : getPcrs()) {
+            result = result.concat(pcr.toString() + "\n");
         }
         return result;
     }
@@ -390,21 +436,10 @@ public class PcrManifest extends ObjectModel {
     @Override
     public void validate() {
         int countPcrEntries = 0;
-        for(int i=0; i<sha1pcrs.length; i++) {
-            if( sha1pcrs[i] != null ) {
-                countPcrEntries++;
-                if( !sha1pcrs[i].isValid() ) {
-                    fault(sha1pcrs[i], String.format("SHA1 Pcr %d is invalid", i));
-                }
-            }
-        }
-        
-        for(Pcr<Sha256Digest> p : sha2pcrs) {
-            if(p != null) {
-                countPcrEntries++;
-                if(!p.isValid()) {
-                    fault(p, String.format("SHA256 Pcr %d is invalid", p.getIndex().toInteger()));
-                }
+        for(Pcr p : getPcrs()) {
+            countPcrEntries++;
+            if(!p.isValid()) {
+                fault(p, String.format("%s Pcr %d is invalid", p.getPcrBank(), p.getIndex().toInteger()));
             }
         }
         
@@ -413,14 +448,26 @@ public class PcrManifest extends ObjectModel {
         }
     }
 
-    private PcrEventLog[] getEventLogBank(DigestAlgorithm bank) {
-        switch(bank) {
-            case SHA1:
-                return this.pcrEventLogsSha1;
-            case SHA256:
-                return this.pcrEventLogsSha256;
-            default:
-                throw new UnsupportedOperationException("PCRBank: " + bank + " not currently supported");
+    /**
+     * @return the PCR values of the bank, or null if it has none
+     * @throws UnsupportedOperationException if the bank is not supported
+     */
+    private PcrBank getPcrBank(DigestAlgorithm bank) {
+        return pcrBanks.get(PcrBankType.valueOf(bank).getAlgorithm());
+    }
+
+    private PcrBank getOrCreatePcrBank(DigestAlgorithm bank) {
+        return pcrBanks.computeIfAbsent(PcrBankType.valueOf(bank).getAlgorithm(), PcrBank::new);
+    }
+
+    private void clearUnpackedPcr(DigestAlgorithm bank, int index) {
+        Pcr[] unpacked = unpackedPcrBanks.get(bank);
+        if (unpacked != null) {
+            unpacked[index] = null;
         }
     }
+
+    private PcrEventLog[] getEventLogBank(DigestAlgorithm bank) {
+        return pcrEventLogBanks.get(PcrBankType.valueOf(bank).getAlgorithm());
+    }
 }
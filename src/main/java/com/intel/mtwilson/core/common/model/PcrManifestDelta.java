@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.model;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The PCRs and event logs that differ between two PcrManifest instances, as
+ * one bitmask per bank, with bit i set if PCR i or its event log changed.
+ * A PCR or event log that is present in only one of the manifests is changed.
+ * Use it to re-evaluate only the policy rules that touch changed PCRs when
+ * a host is attested again.
+ *
+ * @see PcrManifest#diff(PcrManifest)
+ */
+public final class PcrManifestDelta {
+    private final int[] pcrMasks = new int[PcrBankType.values().length];
+    private final int[] eventLogMasks = new int[PcrBankType.values().length];
+
+    PcrManifestDelta() {
+    }
+
+    /**
+     * @param before null if the bank has no PCRs
+     * @param after null if the bank has no PCRs
+     */
+    void comparePcrs(PcrBankType type, PcrBank before, PcrBank after) {
+        int presentBefore = before == null ? 0 : before.getPresenceMask();
+        int presentAfter = after == null ? 0 : after.getPresenceMask();
+        int mask = presentBefore ^ presentAfter;
+        for (int common = presentBefore & presentAfter; common != 0; common &= common - 1) {
+            int i = Integer.numberOfTrailingZeros(common);
+            if (!before.valueEquals(i, after)) {
+                mask |= 1 << i;
+            }
+        }
+        pcrMasks[type.ordinal()] = mask;
+    }
+
+    /**
+     * Marks PCRs as changed in addition to those found by comparePcrs.
+     */
+    void addPcrs(PcrBankType type, int mask) {
+        pcrMasks[type.ordinal()] |= mask;
+    }
+
+    void compareEventLogs(PcrBankType type, PcrEventLog[] before, PcrEventLog[] after) {
+        int mask = 0;
+        for (int i = 0; i < PcrBank.PCR_COUNT; i++) {
+            if (!eventLogEquals(before[i], after[i])) {
+                mask |= 1 << i;
+            }
+        }
+        eventLogMasks[type.ordinal()] = mask;
+    }
+
+    /**
+     * Event logs are equal if they have the same measurements, with the same
+     * digests and labels, in the same order.
+     */
+    private static boolean eventLogEquals(PcrEventLog<?> a, PcrEventLog<?> b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        List<? extends Measurement> before = a.getEventLog();
+        List<? extends Measurement> after = b.getEventLog();
+        if (before.size() != after.size()) {
+            return false;
+        }
+        for (int i = 0; i < before.size(); i++) {
+            Measurement m1 = before.get(i);
+            Measurement m2 = after.get(i);
+            if (m1 == m2) {
+                continue;
+            }
+            if (m1 == null || m2 == null || m1.getValue() == null || m2.getValue() == null
+                    || !Arrays.equals(m1.getValue().toByteArray(), m2.getValue().toByteArray())
+                    || !Objects.equals(m1.getLabel(), m2.getLabel())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if no PCR and no event log changed
+     */
+    public boolean isEmpty() {
+        for (int i = 0; i < pcrMasks.length; i++) {
+            if ((pcrMasks[i] | eventLogMasks[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return bitmask with bit i set if the value of PCR i changed
+     */
+    public int getChangedPcrs(DigestAlgorithm bank) {
+        return PcrBankType.isSupported(bank) ? pcrMasks[PcrBankType.valueOf(bank).ordinal()] : 0;
+    }
+
+    /**
+     * @return bitmask with bit i set if the event log of PCR i changed
+     */
+    public int getChangedEventLogs(DigestAlgorithm bank) {
+        return PcrBankType.isSupported(bank) ? eventLogMasks[PcrBankType.valueOf(bank).ordinal()] : 0;
+    }
+
+    /**
+     * @return bitmask with bit i set if the value or the event log of PCR i changed
+     */
+    public int getChanged(DigestAlgorithm bank) {
+        return getChangedPcrs(bank) | getChangedEventLogs(bank);
+    }
+
+    public boolean isChanged(DigestAlgorithm bank, int index) {
+        return index >= 0 && index < PcrBank.PCR_COUNT && (getChanged(bank) & (1 << index)) != 0;
+    }
+
+    public boolean isChanged(DigestAlgorithm bank, PcrIndex index) {
+        return isChanged(bank, index.toInteger());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (PcrBankType type : PcrBankType.values()) {
+            int pcrs = pcrMasks[type.ordinal()];
+            int eventLogs = eventLogMasks[type.ordinal()];
+            if ((pcrs | eventLogs) != 0) {
+                result.append(String.format("%s: pcrs %s event logs %s%n", type.getAlgorithm(),
+                        Integer.toBinaryString(pcrs), Integer.toBinaryString(eventLogs)));
+            }
+        }
+        return result.toString();
+    }
+}
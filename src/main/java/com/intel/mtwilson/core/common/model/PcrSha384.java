@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.crypto.Sha384Digest;
+/**
+ * A PCR value of the SHA384 bank.
+ */
+public class PcrSha384 extends Pcr<Sha384Digest> {
+    private final Sha384Digest pcrValue;    
+    
+    public PcrSha384(PcrIndex pcrNumber, byte[] value) {
+        super(pcrNumber);
+        pcrValue = new Sha384Digest(value);     
+    }
+    
+    public PcrSha384(int pcrNumber, String value) {
+        super(PcrIndex.valueOf(pcrNumber));
+        pcrValue = new Sha384Digest(value);
+    }
+    
+    @JsonCreator
+    public PcrSha384(@JsonProperty("index") String pcrNumber, @JsonProperty("value") String value) {
+        super(PcrIndex.valueOf(pcrNumber));
+        pcrValue = new Sha384Digest(value);
+    }
+    
+    public PcrSha384(PcrIndex pcrNumber, String value) {
+        super(pcrNumber);
+        pcrValue = new Sha384Digest(value);   
+    }
+    
+    @Override
+    public Sha384Digest getValue() {
+        return pcrValue;
+    }
+
+    @Override
+    public DigestAlgorithm getPcrBank() {
+        return DigestAlgorithm.SHA384;
+    }
+
+    @Override
+    protected void validateOverride() {
+        if(!Sha384Digest.isValid(pcrValue.toByteArray())) {
+            fault("Invalid SHA384 PCR Value");
+        }
+    }    
+}
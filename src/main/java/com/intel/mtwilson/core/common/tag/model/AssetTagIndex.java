@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.tag.model;
+
+import com.intel.mtwilson.core.common.model.x509.UTF8NameValueMicroformat;
+import com.intel.mtwilson.core.common.model.x509.UTF8NameValueSequence;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index of asset tags: tag name to tag value to the set of
+ * hosts that have it.
+ *
+ * Every host is given a small int id when it is added, and each tag value
+ * maps to a BitSet of host ids, so a query over tens of thousands of hosts is
+ * a few word-wise AND/OR operations. Ids of removed hosts are reused.
+ * Adding a certificate for a host that is already indexed replaces its tags,
+ * which is how certificate rotation is handled.
+ *
+ * Instances are thread-safe; queries can run concurrently with each other.
+ */
+public class AssetTagIndex {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AssetTagIndex.class);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> hostIds = new HashMap<>();
+    private final List<String> hosts = new ArrayList<>();
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+    private final BitSet allHosts = new BitSet();
+    private final Map<String, Map<String, BitSet>> index = new HashMap<>();
+    private final Map<Integer, Map<String, Set<String>>> hostTags = new HashMap<>();
+
+    /**
+     * Indexes the tags of the certificate under its subject, which is the
+     * host UUID for certificates issued to a host.
+     */
+    public void add(X509AttributeCertificate certificate) {
+        add(certificate.getSubject(), certificate);
+    }
+
+    public void add(String hostUuid, X509AttributeCertificate certificate) {
+        add(hostUuid, tagsOf(certificate));
+    }
+
+    /**
+     * Replaces the tags of the host.
+     *
+     * @param tags tag names and their values
+     */
+    public void add(String hostUuid, Map<String, ? extends Collection<String>> tags) {
+        lock.writeLock().lock();
+        try {
+            int id = removeTags(hostUuid, true);
+            Map<String, Set<String>> copy = new HashMap<>();
+            for (Map.Entry<String, ? extends Collection<String>> tag : tags.entrySet()) {
+                for (String value : tag.getValue()) {
+                    index.computeIfAbsent(tag.getKey(), name -> new HashMap<>()).computeIfAbsent(value, v -> new BitSet()).set(id);
+                    copy.computeIfAbsent(tag.getKey(), name -> new HashSet<>()).add(value);
+                }
+            }
+            hostTags.put(id, copy);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the host was indexed
+     */
+    public boolean remove(String hostUuid) {
+        lock.writeLock().lock();
+        try {
+            return removeTags(hostUuid, false) >= 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the tags of the host and, unless keepId is set, its id.
+     *
+     * @return the id of the host, -1 if it was not indexed and keepId is false
+     */
+    private int removeTags(String hostUuid, boolean keepId) {
+        Integer id = hostIds.get(hostUuid);
+        if (id == null) {
+            if (!keepId) {
+                return -1;
+            }
+            id = freeIds.isEmpty() ? hosts.size() : freeIds.pop();
+            if (id == hosts.size()) {
+                hosts.add(hostUuid);
+            } else {
+                hosts.set(id, hostUuid);
+            }
+            hostIds.put(hostUuid, id);
+            allHosts.set(id);
+            return id;
+        }
+        Map<String, Set<String>> tags = hostTags.remove(id);
+        if (tags != null) {
+            for (Map.Entry<String, Set<String>> tag : tags.entrySet()) {
+                Map<String, BitSet> values = index.get(tag.getKey());
+                for (String value : tag.getValue()) {
+                    BitSet bits = values.get(value);
+                    bits.clear(id);
+                    if (bits.isEmpty()) {
+                        values.remove(value);
+                    }
+                }
+                if (values.isEmpty()) {
+                    index.remove(tag.getKey());
+                }
+            }
+        }
+        if (!keepId) {
+            hostIds.remove(hostUuid);
+            hosts.set(id, null);
+            allHosts.clear(id);
+            freeIds.push(id);
+        }
+        return id;
+    }
+
+    /**
+     * @return host UUIDs matching the query
+     */
+    public Set<String> select(Query query) {
+        lock.readLock().lock();
+        try {
+            BitSet bits = query.evaluate(this);
+            Set<String> result = new LinkedHashSet<>(bits.cardinality());
+            for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+                result.add(hosts.get(id));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int count(Query query) {
+        lock.readLock().lock();
+        try {
+            return query.evaluate(this).cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the tags of the host, empty if it is not indexed
+     */
+    public Map<String, Set<String>> getTags(String hostUuid) {
+        lock.readLock().lock();
+        try {
+            Integer id = hostIds.get(hostUuid);
+            Map<String, Set<String>> tags = id == null ? null : hostTags.get(id);
+            if (tags == null) {
+                return Collections.emptyMap();
+            }
+            Map<String, Set<String>> result = new LinkedHashMap<>();
+            for (Map.Entry<String, Set<String>> tag : tags.entrySet()) {
+                result.put(tag.getKey(), Collections.unmodifiableSet(new HashSet<>(tag.getValue())));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the values of the tag across all hosts
+     */
+    public Set<String> getValues(String name) {
+        lock.readLock().lock();
+        try {
+            Map<String, BitSet> values = index.get(name);
+            return values == null ? Collections.<String>emptySet() : new HashSet<>(values.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return hostIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            hostIds.clear();
+            hosts.clear();
+            freeIds.clear();
+            allHosts.clear();
+            index.clear();
+            hostTags.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the name-value and name-values attributes of the certificate
+     */
+    static Map<String, Set<String>> tagsOf(X509AttributeCertificate certificate) {
+        Map<String, Set<String>> tags = new HashMap<>();
+        for (UTF8NameValueMicroformat microformat : certificate.getAttributes(UTF8NameValueMicroformat.class)) {
+            tags.computeIfAbsent(microformat.getName(), name -> new HashSet<>()).add(microformat.getValue());
+        }
+        for (UTF8NameValueSequence sequence : certificate.getAttributes(UTF8NameValueSequence.class)) {
+            tags.computeIfAbsent(sequence.getName(), name -> new HashSet<>()).addAll(sequence.getValues());
+        }
+        log.debug("Certificate for {} has {} tags", certificate.getSubject(), tags.size());
+        return tags;
+    }
+
+    // called with the read lock held; the returned BitSet is owned by the caller
+    private BitSet hostsWith(String name, String value) {
+        Map<String, BitSet> values = index.get(name);
+        BitSet bits = values == null ? null : values.get(value);
+        return bits == null ? new BitSet() : (BitSet) bits.clone();
+    }
+
+    /**
+     * Boolean query over tags, for example
+     * <pre>
+     * Query.and(Query.tag("Country", "US"), Query.tag("Datacenter", "X"))
+     * </pre>
+     */
+    public abstract static class Query {
+        abstract BitSet evaluate(AssetTagIndex index);
+
+        /**
+         * @return hosts that have the tag with the value
+         */
+        public static Query tag(final String name, final String value) {
+            return new Query() {
+                @Override
+                BitSet evaluate(AssetTagIndex index) {
+                    return index.hostsWith(name, value);
+                }
+            };
+        }
+
+        /**
+         * @return hosts that have the tag with any of the values
+         */
+        public static Query tagIn(String name, String... values) {
+            Query[] queries = new Query[values.length];
+            for (int i = 0; i < values.length; i++) {
+                queries[i] = tag(name, values[i]);
+            }
+            return or(queries);
+        }
+
+        /**
+         * @return hosts that have the tag with any value
+         */
+        public static Query hasTag(final String name) {
+            return new Query() {
+                @Override
+                BitSet evaluate(AssetTagIndex index) {
+                    BitSet result = new BitSet();
+                    Map<String, BitSet> values = index.index.get(name);
+                    if (values != null) {
+                        for (BitSet bits : values.values()) {
+                            result.or(bits);
+                        }
+                    }
+                    return result;
+                }
+            };
+        }
+
+        public static Query and(final Query... queries) {
+            return new Query() {
+                @Override
+                BitSet evaluate(AssetTagIndex index) {
+                    BitSet result = (BitSet) index.allHosts.clone();
+                    for (Query query : queries) {
+                        if (result.isEmpty()) {
+                            break;
+                        }
+                        result.and(query.evaluate(index));
+                    }
+                    return result;
+                }
+            };
+        }
+
+        public static Query or(final Query... queries) {
+            return new Query() {
+                @Override
+                BitSet evaluate(AssetTagIndex index) {
+                    BitSet result = new BitSet();
+                    for (Query query : queries) {
+                        result.or(query.evaluate(index));
+                    }
+                    return result;
+                }
+            };
+        }
+
+        public static Query not(final Query query) {
+            return new Query() {
+                @Override
+                BitSet evaluate(AssetTagIndex index) {
+                    BitSet result = (BitSet) index.allHosts.clone();
+                    result.andNot(query.evaluate(index));
+                    return result;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.tag.model;
+
+import java.io.IOException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.bc.BcRSAContentVerifierProviderBuilder;
+
+/**
+ * Verifies many asset tag certificates against a fixed set of trusted tag
+ * issuers.
+ *
+ * The verifier for each issuer public key is built once, when the batch
+ * verifier is created. Certificates in a batch are grouped by issuer name so
+ * each issuer is looked up once per batch, then signatures are checked in
+ * parallel on the common fork-join pool. The validity period of every
+ * certificate in a batch is checked against the same time, read once when
+ * the batch starts.
+ *
+ * Only RSA issuer keys are supported, as the tag certificates issued by the
+ * asset tag service are signed with RSA.
+ *
+ * Instances are thread-safe.
+ */
+public class TagCertificateBatchVerifier {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TagCertificateBatchVerifier.class);
+    /** batches smaller than this are verified on the calling thread */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 64;
+
+    public enum Status { VALID, UNTRUSTED_ISSUER, INVALID_SIGNATURE, NOT_YET_VALID, EXPIRED, ERROR }
+
+    private final Map<X500Name, List<ContentVerifierProvider>> issuers = new HashMap<>();
+    private final LongAdder verifiedCount = new LongAdder();
+    private final LongAdder validCount = new LongAdder();
+    private final LongAdder verifyNanos = new LongAdder();
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * @param trustedIssuers the tag CA certificates; several certificates may share a subject name
+     * @throws IllegalArgumentException if the public key of an issuer is not
+     * an RSA key or cannot be used to verify signatures
+     */
+    public TagCertificateBatchVerifier(Collection<X509Certificate> trustedIssuers) {
+        BcRSAContentVerifierProviderBuilder builder = new BcRSAContentVerifierProviderBuilder(new DefaultDigestAlgorithmIdentifierFinder());
+        for (X509Certificate issuer : trustedIssuers) {
+            if (!"RSA".equals(issuer.getPublicKey().getAlgorithm())) {
+                throw new IllegalArgumentException(String.format("Unsupported %s key for tag issuer %s, only RSA is supported",
+                        issuer.getPublicKey().getAlgorithm(), issuer.getSubjectX500Principal().getName()));
+            }
+            try {
+                X509CertificateHolder holder = new X509CertificateHolder(issuer.getEncoded());
+                issuers.computeIfAbsent(holder.getSubject(), name -> new ArrayList<>()).add(builder.build(holder));
+            } catch (CertificateEncodingException | IOException | OperatorCreationException e) {
+                throw new IllegalArgumentException("Cannot initialize certificate verifier for " + issuer.getSubjectX500Principal().getName(), e);
+            }
+        }
+    }
+
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @return one result per certificate, in the order of the input; a null
+     * certificate gets an ERROR result
+     */
+    public BatchResult verify(Collection<X509AttributeCertificate> certificates) {
+        long start = System.nanoTime();
+        Date now = new Date();
+        List<X509AttributeCertificate> list = new ArrayList<>(certificates);
+        Result[] results = new Result[list.size()];
+        // resolve each issuer once per batch
+        Map<X500Name, List<ContentVerifierProvider>> resolved = new HashMap<>();
+        List<List<ContentVerifierProvider>> candidates = new ArrayList<>(list.size());
+        for (X509AttributeCertificate certificate : list) {
+            if (certificate == null) {
+                candidates.add(null);
+                continue;
+            }
+            X500Name[] names = certificate.getHolder().getIssuer().getNames();
+            List<ContentVerifierProvider> providers = Collections.emptyList();
+            if (names.length > 0) {
+                // expected to be only one issuer name
+                providers = resolved.computeIfAbsent(names[0], name -> issuers.getOrDefault(name, Collections.<ContentVerifierProvider>emptyList()));
+            }
+            candidates.add(providers);
+        }
+        IntStream indexes = IntStream.range(0, list.size());
+        if (list.size() >= parallelThreshold) {
+            indexes = indexes.parallel();
+        }
+        indexes.forEach(i -> results[i] = verify(list.get(i), candidates.get(i), now));
+        BatchResult batch = new BatchResult(results, System.nanoTime() - start);
+        verifiedCount.add(results.length);
+        validCount.add(batch.getValidCount());
+        verifyNanos.add(batch.elapsedNanos);
+        log.debug("Verified {} tag certificates from {} issuers in {} ms, {} valid", results.length, resolved.size(), batch.getElapsed(TimeUnit.MILLISECONDS), batch.getValidCount());
+        return batch;
+    }
+
+    /**
+     * Decodes and verifies tag certificates. A null entry, or a certificate
+     * that cannot be decoded, gets an ERROR result.
+     */
+    public BatchResult verifyTagCertificates(Collection<TagCertificate> tagCertificates) {
+        List<X509AttributeCertificate> decoded = new ArrayList<>(tagCertificates.size());
+        List<Integer> undecodable = new ArrayList<>();
+        int index = 0;
+        for (TagCertificate tagCertificate : tagCertificates) {
+            if (tagCertificate == null || tagCertificate.getCertificate() == null) {
+                log.debug("Tag certificate {} is missing", index);
+                undecodable.add(index++);
+                continue;
+            }
+            try {
+                decoded.add(X509AttributeCertificate.valueOf(tagCertificate.getCertificate()));
+            } catch (IllegalArgumentException e) {
+                log.debug("Cannot decode tag certificate for hardware {}: {}", tagCertificate.getHardwareUuid(), e.getMessage());
+                undecodable.add(index);
+            }
+            index++;
+        }
+        BatchResult batch = verify(decoded);
+        if (undecodable.isEmpty()) {
+            return batch;
+        }
+        Result[] results = new Result[tagCertificates.size()];
+        int next = 0;
+        for (int i = 0, u = 0; i < results.length; i++) {
+            if (u < undecodable.size() && undecodable.get(u) == i) {
+                results[i] = new Result(null, Status.ERROR);
+                u++;
+            } else {
+                results[i] = batch.results.get(next++);
+            }
+        }
+        verifiedCount.add(undecodable.size());
+        return new BatchResult(results, batch.elapsedNanos);
+    }
+
+    private static Result verify(X509AttributeCertificate certificate, List<ContentVerifierProvider> providers, Date now) {
+        if (certificate == null) {
+            return new Result(null, Status.ERROR);
+        }
+        if (providers.isEmpty()) {
+            return new Result(certificate, Status.UNTRUSTED_ISSUER);
+        }
+        try {
+            boolean signatureValid = false;
+            for (ContentVerifierProvider provider : providers) {
+                if (certificate.getHolder().isSignatureValid(provider)) {
+                    signatureValid = true;
+                    break;
+                }
+            }
+            if (!signatureValid) {
+                return new Result(certificate, Status.INVALID_SIGNATURE);
+            }
+            if (now.before(certificate.getNotBefore())) {
+                return new Result(certificate, Status.NOT_YET_VALID);
+            }
+            if (now.after(certificate.getNotAfter())) {
+                return new Result(certificate, Status.EXPIRED);
+            }
+            return new Result(certificate, Status.VALID);
+        } catch (Exception e) {
+            log.debug("Cannot verify tag certificate for {}: {}", certificate.getSubject(), e.getMessage());
+            return new Result(certificate, Status.ERROR);
+        }
+    }
+
+    /**
+     * @return number of certificates verified by this instance
+     */
+    public long getVerifiedCount() {
+        return verifiedCount.sum();
+    }
+
+    public long getValidCount() {
+        return validCount.sum();
+    }
+
+    /**
+     * @return certificates verified per second over all batches
+     */
+    public double getThroughput() {
+        long nanos = verifyNanos.sum();
+        return nanos == 0 ? 0 : verifiedCount.sum() * 1e9 / nanos;
+    }
+
+    public static class Result {
+        private final X509AttributeCertificate certificate;
+        private final Status status;
+
+        Result(X509AttributeCertificate certificate, Status status) {
+            this.certificate = certificate;
+            this.status = status;
+        }
+
+        /**
+         * @return the verified certificate, or null if it could not be decoded
+         */
+        public X509AttributeCertificate getCertificate() {
+            return certificate;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public boolean isValid() {
+            return status == Status.VALID;
+        }
+    }
+
+    public static class BatchResult {
+        private final List<Result> results;
+        private final long elapsedNanos;
+
+        BatchResult(Result[] results, long elapsedNanos) {
+            this.results = Collections.unmodifiableList(Arrays.asList(results));
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public List<Result> getResults() {
+            return results;
+        }
+
+        public int getValidCount() {
+            int valid = 0;
+            for (Result result : results) {
+                if (result.isValid()) {
+                    valid++;
+                }
+            }
+            return valid;
+        }
+
+        public boolean isAllValid() {
+            return getValidCount() == results.size();
+        }
+
+        public long getElapsed(TimeUnit unit) {
+            return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return certificates verified per second in this batch
+         */
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : results.size() * 1e9 / elapsedNanos;
+        }
+    }
+}
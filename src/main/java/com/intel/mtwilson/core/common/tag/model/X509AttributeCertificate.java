@@ -12,13 +12,16 @@ import com.intel.dcsg.cpg.validation.Regex;
 import com.intel.mtwilson.core.common.model.OID;
 import com.intel.mtwilson.core.common.model.x509.UTF8NameValueMicroformat;
 import com.intel.mtwilson.core.common.model.x509.UTF8NameValueSequence;
+import com.intel.mtwilson.core.common.utils.BoundedCache;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang3.StringUtils;
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Sequence;
@@ -46,61 +49,114 @@ import org.slf4j.LoggerFactory;
 public class X509AttributeCertificate {
 
     private static Logger log = LoggerFactory.getLogger(X509AttributeCertificate.class);
+    public static final int MAX_CACHED_CERTIFICATES = 1000;
+    /**
+     * Parsed certificates by SHA-384 fingerprint. Instances are shared by all
+     * callers, so they keep their own copy of the encoded bytes and only hand
+     * out copies and unmodifiable lists.
+     */
+    private static final BoundedCache<String, X509AttributeCertificate> CACHE = new BoundedCache<>(MAX_CACHED_CERTIFICATES);
     private final byte[] encoded;
-    private String issuer;
-    private BigInteger serialNumber = null;
-    private String subject = null;
-    private Date notBefore;
-    private Date notAfter;
-    private ArrayList<Attribute> attributes = new ArrayList<>();
-    private ArrayList<UTF8NameValueMicroformat> tags1 = new ArrayList<>();
-    private ArrayList<UTF8NameValueSequence> tags2 = new ArrayList<>();
-    private ArrayList<ASN1Encodable> tagsOther = new ArrayList<>();
+    private final byte[] fingerprintSha384;
+    private final X509AttributeCertificateHolder holder;
+    // fields below are decoded from the holder on first use; races only decode twice
+    private volatile String issuer;
+    private volatile String subject;
+    private volatile DecodedAttributes decodedAttributes;
     
-    private X509AttributeCertificate(byte[] encoded) {
+    private X509AttributeCertificate(byte[] encoded, byte[] fingerprintSha384, X509AttributeCertificateHolder holder) {
         this.encoded = encoded;
+        this.fingerprintSha384 = fingerprintSha384;
+        this.holder = holder;
     }
 
     public byte[] getEncoded() {
-        return encoded;
+        return encoded.clone();
     }
 
     public byte[] getFingerprintSha384() {
-        return Sha384Digest.digestOf(encoded).toByteArray();
+        return fingerprintSha384.clone();
+    }
+
+    X509AttributeCertificateHolder getHolder() {
+        return holder;
     }
 
     @Regex("(?:[a-zA-Z0-9\\[\\]$@(){}_\\.\\=\\, |:-]+)")
     public String getIssuer() {
-        return issuer;
+        String result = issuer;
+        if (result == null) {
+            result = StringUtils.join(holder.getIssuer().getNames(), "; "); // but expected to be only one
+            issuer = result;
+        }
+        return result;
     }
     
     public BigInteger getSerialNumber() {
-        return serialNumber;
+        return holder.getSerialNumber();
     }
     
+    /**
+     * @throws IllegalArgumentException if the holder of the certificate
+     * cannot be decoded; it is decoded on first use, not by valueOf
+     */
     public String getSubject() {
-        return subject;
+        String result = subject;
+        if (result == null) {
+            try {
+                result = decodeSubject(holder);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Cannot decode attribute certificate subject", e);
+            }
+            subject = result;
+        }
+        return result;
     }
     
     public Date getNotBefore() {
-        return notBefore;
+        return holder.getNotBefore();
     }
     
     public Date getNotAfter() {
-        return notAfter;
+        return holder.getNotAfter();
     }
     
+    /**
+     * @return the attributes of the certificate, as an unmodifiable list
+     * @throws IllegalArgumentException if the attributes cannot be decoded;
+     * they are decoded on first use, not by valueOf
+     */
     public List<Attribute> getAttribute() {
-        return attributes;
+        return getDecodedAttributes().attributes;
     }
+
+    /**
+     * @return the attribute values of the given type, as an unmodifiable list
+     * @throws IllegalArgumentException if the attributes cannot be decoded;
+     * they are decoded on first use, not by valueOf
+     */
     public <T extends ASN1Encodable> List<T> getAttributes(Class<T> clazz) {
+        DecodedAttributes decoded = getDecodedAttributes();
         if( clazz.equals(UTF8NameValueMicroformat.class) ) {
-            return (List<T>)tags1;
+            return (List<T>)decoded.tags1;
         }
         if( clazz.equals(UTF8NameValueSequence.class)) {
-            return (List<T>)tags2;
+            return (List<T>)decoded.tags2;
         }
-        return (List<T>)tagsOther;
+        return (List<T>)decoded.tagsOther;
+    }
+
+    private DecodedAttributes getDecodedAttributes() {
+        DecodedAttributes result = decodedAttributes;
+        if (result == null) {
+            try {
+                result = new DecodedAttributes(holder.getAttributes());
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Cannot decode attribute certificate attributes", e);
+            }
+            decodedAttributes = result;
+        }
+        return result;
     }
 
     @Regex("(?:[a-zA-Z0-9\\[\\]$@(){}_\\.\\=\\,\\+\\/ |:-]+)")
@@ -110,82 +166,94 @@ public class X509AttributeCertificate {
     }
 
     /**
+     * Only the outer ASN.1 structure is parsed here; the subject and the
+     * attributes are decoded when first requested. Certificates are cached by
+     * fingerprint, so decoding the same bytes again returns the instance that
+     * was already decoded. A malformed subject or attribute is therefore
+     * reported by the getter that decodes it, as an IllegalArgumentException.
+     * The lists returned by the getters are shared and unmodifiable.
      *
      * @param encodedCertificate
      * @return
+     * @throws IllegalArgumentException if the bytes are not an attribute certificate
      */
     @JsonCreator
     public static X509AttributeCertificate valueOf(@JsonProperty("encoded") byte[] encodedCertificate) {
-        X509AttributeCertificate result = new X509AttributeCertificate(encodedCertificate);
+        byte[] encoded = encodedCertificate.clone();
+        byte[] fingerprint = Sha384Digest.digestOf(encoded).toByteArray();
+        String key = Hex.encodeHexString(fingerprint);
+        X509AttributeCertificate result = CACHE.get(key);
+        if (result != null) {
+            return result;
+        }
         X509AttributeCertificateHolder cert;
         try {
-            cert = new X509AttributeCertificateHolder(encodedCertificate);
+            cert = new X509AttributeCertificateHolder(encoded);
         }
         catch(IOException e) {
             throw new IllegalArgumentException(e);
         }
-        log.debug("issuer: {}", StringUtils.join(cert.getIssuer().getNames(), "; "));  // calls toString() on each X500Name so we get the default representation; we can do it ourselves for custom display;  output example: CN=Attr CA,OU=CPG,OU=DCSG,O=Intel,ST=CA,C=US
-        result.issuer = StringUtils.join(cert.getIssuer().getNames(), "; "); // but expected to be only one
-        log.debug("serial number: {}", cert.getSerialNumber().toString()); // output example:   1
-        result.serialNumber = cert.getSerialNumber();
-        log.debug("holder: {}", StringUtils.join(cert.getHolder().getEntityNames(), ", ")); // output example:  2.25=#041092a71a228c174522a18bfd3ed3d00b39
-        // now let's get the UUID specifically out of this
-        log.debug("holder has {} entity names", cert.getHolder().getEntityNames().length);
+        result = new X509AttributeCertificate(encoded, fingerprint, cert);
+        if (log.isDebugEnabled()) {
+            log.debug("issuer: {} serial number: {} subject: {} not before: {} not after: {}", result.getIssuer(), cert.getSerialNumber(), result.getSubject(), cert.getNotBefore(), cert.getNotAfter());
+        }
+        CACHE.put(key, result);
+        return result;
+    }
+
+    /**
+     * Removes all parsed certificates from the cache.
+     */
+    public static void clearCache() {
+        CACHE.invalidateAll();
+    }
+
+    private static String decodeSubject(X509AttributeCertificateHolder cert) {
+        // the holder UUID, example: 33766a63-5c55-4461-8a84-5936577df450
         for (X500Name entityName : cert.getHolder().getEntityNames()) {
-            log.debug("holder entity name has {} rdns", entityName.getRDNs().length);
             for (RDN rdn : entityName.getRDNs()) {
-                log.debug("entity rdn is multivalued? {}", rdn.isMultiValued());
                 AttributeTypeAndValue attr = rdn.getFirst();
                 if (attr.getType().toString().equals(OID.HOST_UUID)) {
-                    UUID uuid = UUID.valueOf(DEROctetString.getInstance(attr.getValue()).getOctets());
-                    log.debug("holder uuid: {}", uuid);
-                    result.subject = uuid.toString();// example: 33766a63-5c55-4461-8a84-5936577df450
+                    return UUID.valueOf(DEROctetString.getInstance(attr.getValue()).getOctets()).toString();
                 }
             }
         }
         // if we ddin't identify the UUID,  just display the subject same way we did the issuer... concat all the entity names. example: 2.25=#041033766a635c5544618a845936577df450  (notice that in the value, there's a #0410 prepended to the uuid 33766a635c5544618a845936577df450)
-        if (result.subject == null) {
-            result.subject = StringUtils.join(cert.getHolder().getEntityNames(), "; ");
-        }
-        log.debug("not before: {}", cert.getNotBefore()); // output example: Thu Aug 08 15:21:13 PDT 2013
-        log.debug("not after: {}", cert.getNotAfter()); // output example: Sun Sep 08 15:21:13 PDT 2013
-        result.notBefore = cert.getNotBefore();
-        result.notAfter = cert.getNotAfter();
-        Attribute[] attributes = cert.getAttributes();
-        result.tags1 = new ArrayList<>();
-        result.tags2 = new ArrayList<>();
-        result.tagsOther = new ArrayList<>();
-        for (Attribute attr : attributes) {
-            log.debug("attr {} is {}", attr.hashCode(), attr.toString());
-            result.attributes.add(attr);
-            for (ASN1Encodable value : attr.getAttributeValues()) {
-                if( attr.getAttrType().toString().equals(UTF8NameValueMicroformat.OID)) {
-                    log.debug("name-value microformat attribute: {}",  DERUTF8String.getInstance(value).getString()); // our values are just UTF-8 strings  but if you use new String(value.getEncoded())  you will get two extra spaces at the beginning of the string                    
-                    UTF8NameValueMicroformat microformat = new UTF8NameValueMicroformat(DERUTF8String.getInstance(value));
-                    log.debug("name-value microformat attribute (2)  name {} value {}", microformat.getName(), microformat.getValue());
-                    result.tags1.add(microformat);
-                }
-                else if( attr.getAttrType().toString().equals(UTF8NameValueSequence.OID)) {
-                    UTF8NameValueSequence sequence = new UTF8NameValueSequence(ASN1Sequence.getInstance(value));
-                    String name = sequence.getName();
-                    List<String> values = sequence.getValues();
-                    log.debug("name-values asn.1 attribute {} values {}",  name, values); 
-                    result.tags2.add(sequence);
-                }
-                else {
-                    log.debug("unrecognzied attribute type {}", attr.getAttrType().toString());
-                    result.tagsOther.add(value);
+        return StringUtils.join(cert.getHolder().getEntityNames(), "; ");
+    }
+
+    private static final class DecodedAttributes {
+        private final List<Attribute> attributes;
+        private final List<UTF8NameValueMicroformat> tags1;
+        private final List<UTF8NameValueSequence> tags2;
+        private final List<ASN1Encodable> tagsOther;
+
+        DecodedAttributes(Attribute[] certificateAttributes) {
+            List<Attribute> attributes = new ArrayList<>();
+            List<UTF8NameValueMicroformat> tags1 = new ArrayList<>();
+            List<UTF8NameValueSequence> tags2 = new ArrayList<>();
+            List<ASN1Encodable> tagsOther = new ArrayList<>();
+            for (Attribute attr : certificateAttributes) {
+                attributes.add(attr);
+                String type = attr.getAttrType().toString();
+                for (ASN1Encodable value : attr.getAttributeValues()) {
+                    if( type.equals(UTF8NameValueMicroformat.OID)) {
+                        tags1.add(new UTF8NameValueMicroformat(DERUTF8String.getInstance(value)));
+                    }
+                    else if( type.equals(UTF8NameValueSequence.OID)) {
+                        tags2.add(new UTF8NameValueSequence(ASN1Sequence.getInstance(value)));
+                    }
+                    else {
+                        log.debug("unrecognzied attribute type {}", type);
+                        tagsOther.add(value);
+                    }
                 }
-                /*
-                 * output examples:
-                 * attribute: 1.3.6.1.4.1.99999.1.1.1.1 is US
-                 * attribute: 1.3.6.1.4.1.99999.2.2.2.2 is CA
-                 * attribute: 1.3.6.1.4.1.99999.3.3.3.3 is Folsom
-                 */
             }
+            this.attributes = Collections.unmodifiableList(attributes);
+            this.tags1 = Collections.unmodifiableList(tags1);
+            this.tags2 = Collections.unmodifiableList(tags2);
+            this.tagsOther = Collections.unmodifiableList(tagsOther);
         }
-        log.debug("valueOf ok");
-        return result;
     }
     
     /**
@@ -206,13 +274,12 @@ public class X509AttributeCertificate {
      */
     public boolean isValid(X509Certificate issuer, Date date) {
         try {
-            X509AttributeCertificateHolder holder = new X509AttributeCertificateHolder(encoded);
             ContentVerifierProvider verifierProvider = new BcRSAContentVerifierProviderBuilder(new DefaultDigestAlgorithmIdentifierFinder()).build(new X509CertificateHolder(issuer.getEncoded()));
             if( !holder.isSignatureValid(verifierProvider) ) {
                 log.debug("Certificate signature cannot be validated with certificate: {}", issuer.getIssuerX500Principal().getName());
                 return false;
             }
-            return date.compareTo(notBefore) > -1 && date.compareTo(notAfter) < 1;
+            return date.compareTo(getNotBefore()) > -1 && date.compareTo(getNotAfter()) < 1;
         }
         catch(Exception e) {
             log.error("Cannot initialize certificate verifier", e);
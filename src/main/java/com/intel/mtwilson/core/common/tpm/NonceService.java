@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.tpm;
+
+import com.intel.mtwilson.core.common.model.Nonce;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Issues quote nonces and checks that the nonce of a quote response was
+ * issued recently and is used only once.
+ *
+ * Each thread draws nonces from its own DRBG, so threads do not contend on a
+ * shared SecureRandom. Java 8 has no DRBG SecureRandom, so SHA1PRNG is used
+ * there; on later versions DRBG is used. Per-thread generators are re-created
+ * from fresh seed material every {@link #RESEED_INTERVAL} nonces.
+ *
+ * Issued nonces are remembered for the freshness window in a ring of time
+ * buckets. Each bucket holds open-addressing hash sets of the first 8 bytes
+ * of the nonces, one for issued nonces and one for used nonces, and the
+ * oldest bucket is dropped as time advances. Checking a nonce looks at a fixed
+ * number of buckets, so it is O(1). The number of remembered nonces is
+ * bounded; when the bound is reached the oldest bucket is dropped early, so
+ * its nonces are rejected as unknown rather than accepted twice. Since only
+ * part of the nonce is remembered, the caller must still compare the nonce
+ * in the quote with the nonce it sent.
+ *
+ * Instances are thread-safe.
+ */
+public class NonceService {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(NonceService.class);
+    /** length of the nonce in a TpmQuoteRequest */
+    public static final int NONCE_LENGTH = 20;
+    public static final long DEFAULT_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+    public static final int RESEED_INTERVAL = 1 << 16;
+    private static final int BUCKETS = 16;
+
+    public enum Status {
+        /** issued by this service within the window and not used before */
+        FRESH,
+        /** issued by this service within the window, but already used */
+        REPLAYED,
+        /** not issued by this service, or issued before the window */
+        UNKNOWN
+    }
+
+    private static final ThreadLocal<Generator> GENERATORS = ThreadLocal.withInitial(Generator::new);
+
+    private final long bucketMillis;
+    private final int capacity;
+    private final Bucket[] buckets = new Bucket[BUCKETS + 1];
+    private long currentEpoch;
+    private int size;
+    private final LongAdder issuedCount = new LongAdder();
+    private final LongAdder freshCount = new LongAdder();
+    private final LongAdder replayedCount = new LongAdder();
+    private final LongAdder unknownCount = new LongAdder();
+
+    public NonceService() {
+        this(DEFAULT_WINDOW_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param window how long an issued nonce is accepted
+     * @param unit of the window
+     * @param capacity maximum number of nonces remembered
+     */
+    public NonceService(long window, TimeUnit unit, int capacity) {
+        this.bucketMillis = Math.max(1, unit.toMillis(window) / BUCKETS);
+        this.capacity = capacity;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.currentEpoch = System.currentTimeMillis() / bucketMillis;
+    }
+
+    /**
+     * @return a random nonce that is not remembered, for callers that track freshness themselves
+     */
+    public static byte[] newNonce() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        GENERATORS.get().nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * @return a new nonce that is accepted once by {@link #check(byte[])} within the window
+     */
+    public byte[] issue() {
+        byte[] nonce = newNonce();
+        long key = keyOf(nonce);
+        synchronized (buckets) {
+            Bucket bucket = advance(System.currentTimeMillis());
+            if (size >= capacity) {
+                dropOldest();
+            }
+            bucket.issued.add(key);
+            size++;
+        }
+        issuedCount.increment();
+        return nonce;
+    }
+
+    public Nonce issueNonce() {
+        return new Nonce(issue());
+    }
+
+    /**
+     * Checks the nonce of a quote response and marks it as used.
+     */
+    public Status check(byte[] nonce) {
+        if (nonce == null || nonce.length != NONCE_LENGTH) {
+            unknownCount.increment();
+            return Status.UNKNOWN;
+        }
+        long key = keyOf(nonce);
+        Status status = Status.UNKNOWN;
+        synchronized (buckets) {
+            advance(System.currentTimeMillis());
+            for (Bucket bucket : buckets) {
+                if (bucket.issued.remove(key)) {
+                    bucket.used.add(key);
+                    status = Status.FRESH;
+                    break;
+                }
+                if (bucket.used.contains(key)) {
+                    status = Status.REPLAYED;
+                    break;
+                }
+            }
+        }
+        switch (status) {
+            case FRESH:
+                freshCount.increment();
+                break;
+            case REPLAYED:
+                replayedCount.increment();
+                log.debug("Nonce replayed");
+                break;
+            default:
+                unknownCount.increment();
+        }
+        return status;
+    }
+
+    public Status check(Nonce nonce) {
+        return check(nonce == null ? null : nonce.toByteArray());
+    }
+
+    /**
+     * Drops the buckets that are older than the window; called with the lock held.
+     *
+     * @return the bucket for the current time
+     */
+    private Bucket advance(long now) {
+        long epoch = now / bucketMillis;
+        if (epoch > currentEpoch) {
+            long steps = Math.min(epoch - currentEpoch, buckets.length);
+            for (long i = 1; i <= steps; i++) {
+                Bucket expired = buckets[(int) ((currentEpoch + i) % buckets.length)];
+                size -= expired.size();
+                expired.clear();
+            }
+            currentEpoch = epoch;
+        }
+        return buckets[(int) (currentEpoch % buckets.length)];
+    }
+
+    private void dropOldest() {
+        for (int i = 1; i <= buckets.length; i++) {
+            Bucket oldest = buckets[(int) ((currentEpoch + i) % buckets.length)];
+            if (oldest.size() > 0) {
+                log.warn("More than {} nonces outstanding, dropping {} nonces before the end of the window", capacity, oldest.size());
+                size -= oldest.size();
+                oldest.clear();
+                return;
+            }
+        }
+    }
+
+    private static long keyOf(byte[] nonce) {
+        long key = 0;
+        for (int i = 0; i < 8; i++) {
+            key = (key << 8) | (nonce[i] & 0xff);
+        }
+        return key;
+    }
+
+    public long getIssuedCount() {
+        return issuedCount.sum();
+    }
+
+    public long getFreshCount() {
+        return freshCount.sum();
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.sum();
+    }
+
+    public long getUnknownCount() {
+        return unknownCount.sum();
+    }
+
+    /**
+     * @return number of issued and used nonces currently remembered
+     */
+    public int size() {
+        synchronized (buckets) {
+            return size;
+        }
+    }
+
+    private static final class Generator {
+        private SecureRandom random;
+        private int remaining;
+
+        void nextBytes(byte[] bytes) {
+            if (remaining <= 0) {
+                random = newSecureRandom();
+                remaining = RESEED_INTERVAL;
+            }
+            remaining--;
+            random.nextBytes(bytes);
+        }
+
+        private static SecureRandom newSecureRandom() {
+            SecureRandom random;
+            try {
+                random = SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException e) {
+                try {
+                    random = SecureRandom.getInstance("SHA1PRNG");
+                } catch (NoSuchAlgorithmException e2) {
+                    return new SecureRandom();
+                }
+            }
+            // seed explicitly so the generator never shares state with another instance
+            byte[] seed = new byte[32];
+            new SecureRandom().nextBytes(seed);
+            random.setSeed(seed);
+            return random;
+        }
+    }
+
+    private static final class Bucket {
+        private final LongHashSet issued = new LongHashSet();
+        private final LongHashSet used = new LongHashSet();
+
+        int size() {
+            return issued.size() + used.size();
+        }
+
+        void clear() {
+            issued.clear();
+            used.clear();
+        }
+    }
+
+    /**
+     * Open-addressing hash set of longs with linear probing and backward-shift
+     * deletion. The value 0 marks an empty slot, so key 0 is stored as 1.
+     */
+    static final class LongHashSet {
+        private static final int INITIAL_CAPACITY = 64;
+        private long[] table = new long[INITIAL_CAPACITY];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            if (table.length > INITIAL_CAPACITY) {
+                table = new long[INITIAL_CAPACITY];
+            } else {
+                Arrays.fill(table, 0);
+            }
+            size = 0;
+        }
+
+        boolean add(long key) {
+            key = key == 0 ? 1 : key;
+            if ((size + 1) * 4 > table.length * 3) {
+                resize();
+            }
+            int mask = table.length - 1;
+            for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+                if (table[i] == 0) {
+                    table[i] = key;
+                    size++;
+                    return true;
+                }
+                if (table[i] == key) {
+                    return false;
+                }
+            }
+        }
+
+        boolean contains(long key) {
+            key = key == 0 ? 1 : key;
+            int mask = table.length - 1;
+            for (int i = slot(key, mask); table[i] != 0; i = (i + 1) & mask) {
+                if (table[i] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean remove(long key) {
+            key = key == 0 ? 1 : key;
+            int mask = table.length - 1;
+            int i = slot(key, mask);
+            while (table[i] != key) {
+                if (table[i] == 0) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            // shift back the following entries of the probe sequence
+            int hole = i;
+            for (int j = (hole + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+                int home = slot(table[j], mask);
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    table[hole] = table[j];
+                    hole = j;
+                }
+            }
+            table[hole] = 0;
+            size--;
+            return true;
+        }
+
+        private void resize() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            size = 0;
+            for (long key : old) {
+                if (key != 0) {
+                    add(key);
+                }
+            }
+        }
+
+        static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
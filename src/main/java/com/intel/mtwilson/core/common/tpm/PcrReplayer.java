@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.tpm;
+
+import com.intel.dcsg.cpg.crypto.AbstractDigest;
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.Measurement;
+import com.intel.mtwilson.core.common.model.PcrBank;
+import com.intel.mtwilson.core.common.model.PcrBankType;
+import com.intel.mtwilson.core.common.model.PcrEventLog;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays the event logs in a PcrManifest with TPM extend semantics and
+ * compares the result to the PCR values reported in the same manifest.
+ * Every PCR with an event log starts at zero and is extended once per
+ * measurement:
+ * <pre>
+ * PCR = H(PCR || measurement)
+ * </pre>
+ * where H is the hash algorithm of the bank.
+ *
+ * The initial value is always zero, so the TPM 2.0 startup locality is not
+ * taken into account: on a host that started the TPM from locality 3 or 4,
+ * PCR 0 starts with the locality in its last byte and is reported as a
+ * mismatch. The event logs of this model do not record the StartupLocality
+ * event that would tell.
+ *
+ * Each thread reuses its own MessageDigest instances, and the replayed values
+ * of a bank are extended in place in one array, so the only allocations per
+ * measurement are those of {@link AbstractDigest#toByteArray()}. Reported
+ * values are compared without creating a Pcr per PCR. When a manifest has
+ * more measurements than the parallel threshold, its event logs are replayed
+ * in parallel, one task per bank and PCR, on the common fork-join pool.
+ *
+ * Instances are thread-safe once configured.
+ */
+public class PcrReplayer {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PcrReplayer.class);
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
+
+    private static final ThreadLocal<Map<DigestAlgorithm, MessageDigest>> MESSAGE_DIGESTS = ThreadLocal.withInitial(() -> new EnumMap<>(DigestAlgorithm.class));
+
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * @param parallelThreshold total number of measurements above which
+     * event logs are replayed in parallel; use Integer.MAX_VALUE to always
+     * replay on the calling thread
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Replays every event log in the manifest. Banks that are not supported
+     * by {@link PcrBankType} are ignored.
+     *
+     * @throws IllegalArgumentException if a measurement is not a digest of the bank's length
+     */
+    public Result replay(PcrManifest pcrManifest) {
+        List<ReplayTask> tasks = new ArrayList<>();
+        Map<DigestAlgorithm, byte[]> values = new EnumMap<>(DigestAlgorithm.class);
+        int measurements = 0;
+        for (DigestAlgorithm bank : PcrBankType.supportedAlgorithms()) {
+            PcrBankType type = PcrBankType.valueOf(bank);
+            for (PcrEventLog pcrEventLog : pcrManifest.getPcrEventLogs(bank)) {
+                byte[] bankValues = values.computeIfAbsent(bank, key -> new byte[PcrBank.PCR_COUNT * type.getDigestLength()]);
+                tasks.add(new ReplayTask(type, pcrEventLog, bankValues, pcrEventLog.getPcrIndex().toInteger() * type.getDigestLength()));
+                measurements += pcrEventLog.getEventLog().size();
+            }
+        }
+        if (measurements > parallelThreshold && tasks.size() > 1) {
+            log.debug("Replaying {} measurements in {} event logs in parallel", measurements, tasks.size());
+            tasks.parallelStream().forEach(ReplayTask::run);
+        } else {
+            tasks.forEach(ReplayTask::run);
+        }
+        Result result = new Result();
+        Map<DigestAlgorithm, PcrBank> reported = new EnumMap<>(DigestAlgorithm.class);
+        for (ReplayTask task : tasks) {
+            result.add(task, reported.computeIfAbsent(task.type.getAlgorithm(), pcrManifest::toPcrBank));
+        }
+        return result;
+    }
+
+    /**
+     * Replays a single event log.
+     *
+     * @return the PCR value the event log extends to
+     * @throws IllegalArgumentException if a measurement is not a digest of the bank's length
+     */
+    public byte[] replay(DigestAlgorithm bank, PcrEventLog<? extends Measurement> pcrEventLog) {
+        PcrBankType type = PcrBankType.valueOf(bank);
+        ReplayTask task = new ReplayTask(type, pcrEventLog, new byte[type.getDigestLength()], 0);
+        task.run();
+        return task.values;
+    }
+
+    private static MessageDigest messageDigest(PcrBankType type) {
+        Map<DigestAlgorithm, MessageDigest> digests = MESSAGE_DIGESTS.get();
+        MessageDigest md = digests.get(type.getAlgorithm());
+        if (md == null) {
+            try {
+                md = MessageDigest.getInstance(type.getMessageDigestAlgorithm());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Digest algorithm not available: " + type.getMessageDigestAlgorithm(), e);
+            }
+            digests.put(type.getAlgorithm(), md);
+        }
+        return md;
+    }
+
+    /**
+     * Extends one PCR in place in an array shared with the other PCRs of the
+     * bank; tasks of one bank write disjoint ranges of it.
+     */
+    private static final class ReplayTask {
+        private final PcrBankType type;
+        private final int index;
+        private final List<? extends Measurement> measurements;
+        private final byte[] values;
+        private final int offset;
+
+        ReplayTask(PcrBankType type, PcrEventLog<? extends Measurement> pcrEventLog, byte[] values, int offset) {
+            this.type = type;
+            this.index = pcrEventLog.getPcrIndex().toInteger();
+            this.measurements = pcrEventLog.getEventLog();
+            this.values = values;
+            this.offset = offset;
+        }
+
+        void run() {
+            int length = type.getDigestLength();
+            MessageDigest md = messageDigest(type);
+            md.reset();
+            try {
+                for (Measurement measurement : measurements) {
+                    byte[] digest = measurement.getValue() == null ? null : measurement.getValue().toByteArray();
+                    if (digest == null || digest.length != length) {
+                        throw new IllegalArgumentException(String.format("Measurement %s in %s PCR %d is not a %d byte digest",
+                                measurement.getLabel(), type, index, length));
+                    }
+                    md.update(values, offset, length);
+                    md.update(digest);
+                    md.digest(values, offset, length);
+                }
+            } catch (DigestException e) {
+                throw new IllegalStateException("Cannot extend " + type + " PCR " + index, e);
+            } finally {
+                // the digest is shared by later tasks on this thread
+                md.reset();
+            }
+        }
+
+        byte[] getValue() {
+            return Arrays.copyOfRange(values, offset, offset + type.getDigestLength());
+        }
+    }
+
+    /**
+     * Replayed values and match status for every PCR that has an event log.
+     */
+    public static class Result {
+        private final Map<DigestAlgorithm, PcrBank> replayed = new EnumMap<>(DigestAlgorithm.class);
+        private final Map<DigestAlgorithm, Integer> matched = new EnumMap<>(DigestAlgorithm.class);
+        private final Map<DigestAlgorithm, Integer> mismatched = new EnumMap<>(DigestAlgorithm.class);
+
+        private void add(ReplayTask task, PcrBank reported) {
+            DigestAlgorithm bank = task.type.getAlgorithm();
+            byte[] value = task.getValue();
+            replayed.computeIfAbsent(bank, PcrBank::new).setValue(task.index, value);
+            int bit = 1 << task.index;
+            if (reported.valueEquals(task.index, value)) {
+                matched.merge(bank, bit, (a, b) -> a | b);
+            } else {
+                mismatched.merge(bank, bit, (a, b) -> a | b);
+            }
+        }
+
+        /**
+         * @return true if every replayed event log extends to its reported PCR value
+         */
+        public boolean isMatch() {
+            return mismatched.isEmpty();
+        }
+
+        /**
+         * @return the replayed PCR values of the bank, or null if the bank had no event logs
+         */
+        public PcrBank getReplayedValues(DigestAlgorithm bank) {
+            return replayed.get(bank);
+        }
+
+        /**
+         * @return bitmask with bit i set if the event log of PCR i extends to the reported value
+         */
+        public int getMatchMask(DigestAlgorithm bank) {
+            return matched.getOrDefault(bank, 0);
+        }
+
+        /**
+         * @return bitmask with bit i set if the event log of PCR i does not
+         * extend to the reported value, or there is no reported value
+         */
+        public int getMismatchMask(DigestAlgorithm bank) {
+            return mismatched.getOrDefault(bank, 0);
+        }
+
+        public boolean isMatch(DigestAlgorithm bank, int index) {
+            return (getMatchMask(bank) & (1 << index)) != 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            for (DigestAlgorithm bank : replayed.keySet()) {
+                result.append(String.format("%s: match %s mismatch %s%n", bank,
+                        Integer.toBinaryString(getMatchMask(bank)), Integer.toBinaryString(getMismatchMask(bank))));
+            }
+            return result.toString();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.tpm;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.PcrBank;
+import com.intel.mtwilson.core.common.model.PcrBankType;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A TPM 2.0 quote as returned by the trust agent in TpmQuoteResponse.quote:
+ * a TPM2B_ATTEST holding a TPMS_ATTEST of type TPM_ST_ATTEST_QUOTE,
+ * followed by the TPMT_SIGNATURE of the attestation. The size prefix of the
+ * TPM2B_ATTEST is optional. Any bytes after the signature, such as the PCR
+ * values some trust agents append, are available as the trailer.
+ *
+ * Parsing does not copy the quote: the variable length fields are slices of
+ * the buffer that was parsed, so the buffer must not be modified while the
+ * quote is in use. The getters return read-only views of the slices.
+ */
+public final class TpmQuote {
+    public static final int TPM_GENERATED_VALUE = 0xff544347;
+    public static final int TPM_ST_ATTEST_QUOTE = 0x8018;
+    public static final int TPM_ALG_SHA1 = 0x0004;
+    public static final int TPM_ALG_SHA256 = 0x000b;
+    public static final int TPM_ALG_SHA384 = 0x000c;
+    public static final int TPM_ALG_RSASSA = 0x0014;
+    public static final int TPM_ALG_RSAPSS = 0x0016;
+    public static final int TPM_ALG_ECDSA = 0x0018;
+    /** PCR selections in a quote; a TPM has one per bank */
+    private static final int MAX_SELECTIONS = 16;
+
+    private final ByteBuffer attest;
+    private final ByteBuffer qualifiedSigner;
+    private final ByteBuffer extraData;
+    private final long clock;
+    private final int resetCount;
+    private final int restartCount;
+    private final boolean safe;
+    private final long firmwareVersion;
+    private final int[] selectedBanks;
+    private final int[] selectedPcrs;
+    private final ByteBuffer pcrDigest;
+    private final int signatureAlgorithm;
+    private final int signatureHashAlgorithm;
+    private final ByteBuffer signature;
+    private final ByteBuffer signatureS;
+    private final ByteBuffer trailer;
+
+    private TpmQuote(ByteBuffer quote) {
+        int attestSize;
+        if (quote.remaining() >= 4 && quote.getInt(quote.position()) == TPM_GENERATED_VALUE) {
+            attestSize = -1;
+        } else {
+            attestSize = quote.getShort() & 0xffff;
+        }
+        int attestStart = quote.position();
+        if (quote.getInt() != TPM_GENERATED_VALUE) {
+            throw new IllegalArgumentException("Quote was not generated by a TPM");
+        }
+        int type = quote.getShort() & 0xffff;
+        if (type != TPM_ST_ATTEST_QUOTE) {
+            throw new IllegalArgumentException(String.format("Attestation type 0x%04x is not a quote", type));
+        }
+        qualifiedSigner = sized(quote);
+        extraData = sized(quote);
+        clock = quote.getLong();
+        resetCount = quote.getInt();
+        restartCount = quote.getInt();
+        safe = quote.get() != 0;
+        firmwareVersion = quote.getLong();
+        int count = quote.getInt();
+        if (count < 0 || count > MAX_SELECTIONS) {
+            throw new IllegalArgumentException("Invalid number of PCR selections: " + Integer.toUnsignedString(count));
+        }
+        selectedBanks = new int[count];
+        selectedPcrs = new int[count];
+        for (int i = 0; i < count; i++) {
+            selectedBanks[i] = quote.getShort() & 0xffff;
+            int sizeofSelect = quote.get() & 0xff;
+            int mask = 0;
+            for (int j = 0; j < sizeofSelect; j++) {
+                int bits = quote.get() & 0xff;
+                if (j >= 4) {
+                    if (bits != 0) {
+                        throw new IllegalArgumentException("PCR selection beyond PCR 31");
+                    }
+                    continue;
+                }
+                mask |= bits << (8 * j);
+            }
+            selectedPcrs[i] = mask;
+        }
+        pcrDigest = sized(quote);
+        int attestEnd = quote.position();
+        if (attestSize >= 0 && attestEnd - attestStart != attestSize) {
+            throw new IllegalArgumentException("Attestation size does not match its content");
+        }
+        attest = slice(quote, attestStart, attestEnd);
+        signatureAlgorithm = quote.getShort() & 0xffff;
+        switch (signatureAlgorithm) {
+            case TPM_ALG_RSASSA:
+            case TPM_ALG_RSAPSS:
+                signatureHashAlgorithm = quote.getShort() & 0xffff;
+                signature = sized(quote);
+                signatureS = null;
+                break;
+            case TPM_ALG_ECDSA:
+                signatureHashAlgorithm = quote.getShort() & 0xffff;
+                signature = sized(quote);
+                signatureS = sized(quote);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported signature algorithm 0x%04x", signatureAlgorithm));
+        }
+        trailer = slice(quote, quote.position(), quote.limit());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the quote is truncated or is not a TPM 2.0 quote
+     */
+    public static TpmQuote parse(byte[] quote) {
+        return parse(ByteBuffer.wrap(quote));
+    }
+
+    /**
+     * Parses the quote between the position and the limit of the buffer.
+     * The position of the buffer is not changed.
+     *
+     * @throws IllegalArgumentException if the quote is truncated or is not a TPM 2.0 quote
+     */
+    public static TpmQuote parse(ByteBuffer quote) {
+        try {
+            return new TpmQuote(quote.duplicate());
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Quote is truncated", e);
+        }
+    }
+
+    /**
+     * Reads a TPM2B structure, a 16-bit size followed by that many bytes.
+     */
+    private static ByteBuffer sized(ByteBuffer buffer) {
+        int size = buffer.getShort() & 0xffff;
+        if (size > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        int start = buffer.position();
+        buffer.position(start + size);
+        return slice(buffer, start, start + size);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(end).position(start);
+        return slice.slice();
+    }
+
+    /**
+     * @return the DigestAlgorithm of a TPM_ALG_ID, or null if it is not a supported hash algorithm
+     */
+    public static DigestAlgorithm digestAlgorithm(int tpmAlgId) {
+        switch (tpmAlgId) {
+            case TPM_ALG_SHA1:
+                return DigestAlgorithm.SHA1;
+            case TPM_ALG_SHA256:
+                return DigestAlgorithm.SHA256;
+            case TPM_ALG_SHA384:
+                return DigestAlgorithm.SHA384;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Slices used by the verifier; unlike the getters they are writable so
+     * Signature and MessageDigest can read their backing array directly.
+     */
+    ByteBuffer attest() {
+        return attest.duplicate();
+    }
+
+    ByteBuffer extraData() {
+        return extraData.duplicate();
+    }
+
+    ByteBuffer pcrDigest() {
+        return pcrDigest.duplicate();
+    }
+
+    ByteBuffer signature() {
+        return signature.duplicate();
+    }
+
+    ByteBuffer signatureS() {
+        return signatureS == null ? null : signatureS.duplicate();
+    }
+
+    /**
+     * @return the TPMS_ATTEST structure, which is what the AIK signed
+     */
+    public ByteBuffer getAttest() {
+        return attest.asReadOnlyBuffer();
+    }
+
+    public ByteBuffer getQualifiedSigner() {
+        return qualifiedSigner.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the qualifying data of the quote, normally the nonce of the request
+     */
+    public ByteBuffer getExtraData() {
+        return extraData.asReadOnlyBuffer();
+    }
+
+    public long getClock() {
+        return clock;
+    }
+
+    public int getResetCount() {
+        return resetCount;
+    }
+
+    public int getRestartCount() {
+        return restartCount;
+    }
+
+    public boolean isSafe() {
+        return safe;
+    }
+
+    public long getFirmwareVersion() {
+        return firmwareVersion;
+    }
+
+    /**
+     * @return number of PCR banks in the PCR selection
+     */
+    public int getSelectionCount() {
+        return selectedBanks.length;
+    }
+
+    /**
+     * @return the TPM_ALG_ID of the hash algorithm of the i-th PCR selection
+     */
+    public int getSelectedBank(int i) {
+        return selectedBanks[i];
+    }
+
+    /**
+     * @return bitmask with bit n set if PCR n is selected in the i-th PCR selection
+     */
+    public int getSelectedPcrs(int i) {
+        return selectedPcrs[i];
+    }
+
+    /**
+     * @return the digest of the selected PCR values
+     */
+    public ByteBuffer getPcrDigest() {
+        return pcrDigest.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the TPM_ALG_ID of the signature scheme
+     */
+    public int getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    /**
+     * @return the TPM_ALG_ID of the hash algorithm of the signature scheme
+     */
+    public int getSignatureHashAlgorithm() {
+        return signatureHashAlgorithm;
+    }
+
+    /**
+     * @return the RSA signature, or the r value of an ECDSA signature
+     */
+    public ByteBuffer getSignature() {
+        return signature.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the s value of an ECDSA signature, or null
+     */
+    public ByteBuffer getSignatureS() {
+        return signatureS == null ? null : signatureS.asReadOnlyBuffer();
+    }
+
+    /**
+     * Stores the PCR values that the trust agent appends after the signature
+     * in the manifest. The values follow the order of the PCR selection: by
+     * bank, then by ascending PCR index.
+     *
+     * @return number of PCR values stored, 0 if nothing follows the signature
+     * @throws IllegalArgumentException if the trailer does not hold exactly
+     * one value per selected PCR, or a selected bank is not supported
+     */
+    public int copyPcrValues(PcrManifest pcrManifest) {
+        if (!trailer.hasRemaining()) {
+            return 0;
+        }
+        ByteBuffer values = trailer.duplicate();
+        int count = 0;
+        for (int i = 0; i < selectedBanks.length; i++) {
+            DigestAlgorithm bank = digestAlgorithm(selectedBanks[i]);
+            if (bank == null || !PcrBankType.isSupported(bank)) {
+                throw new IllegalArgumentException(String.format("Unsupported PCR bank 0x%04x", selectedBanks[i]));
+            }
+            PcrBankType type = PcrBankType.valueOf(bank);
+            for (int mask = selectedPcrs[i]; mask != 0; mask &= mask - 1) {
+                int index = Integer.numberOfTrailingZeros(mask);
+                if (index >= PcrBank.PCR_COUNT) {
+                    throw new IllegalArgumentException("PCR index out of range: " + index);
+                }
+                if (values.remaining() < type.getDigestLength()) {
+                    throw new IllegalArgumentException("PCR values are truncated");
+                }
+                byte[] value = new byte[type.getDigestLength()];
+                values.get(value);
+                pcrManifest.setPcr(type.newPcr(PcrIndex.valueOf(index), value));
+                count++;
+            }
+        }
+        if (values.hasRemaining()) {
+            throw new IllegalArgumentException("Unexpected data after the PCR values");
+        }
+        return count;
+    }
+
+    /**
+     * @return the bytes after the signature, empty if there are none
+     */
+    public ByteBuffer getTrailer() {
+        return trailer.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.tpm;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.Pcr;
+import com.intel.mtwilson.core.common.model.PcrBank;
+import com.intel.mtwilson.core.common.model.PcrBankType;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.common.trustagent.model.TpmQuoteResponse;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Verifies a TPM 2.0 quote: the AIK signature over the attestation, the
+ * nonce in its extra data, and the digest of the selected PCRs against the
+ * PCR values of a PcrManifest. The PCR digest is the hash, with the hash
+ * algorithm of the signature scheme, of the selected PCR values in the order
+ * of the PCR selection and, within a bank, by ascending PCR index. Every PCR
+ * in the manifest must be selected by the quote, so a host cannot leave PCRs
+ * out of the quote, and a quote that selects no PCR does not pass.
+ *
+ * The quote is parsed with {@link TpmQuote} without copying it. Each thread
+ * reuses its own Signature and MessageDigest instances, so verifying a quote
+ * allocates little besides the parsed quote and its result. The cheap checks
+ * run first and verification stops at the first failure.
+ *
+ * RSASSA-PSS signatures are verified with the salt length equal to the
+ * digest length, and need a provider for RSASSA-PSS, which Java 8 does not
+ * have unless one such as BouncyCastle is installed.
+ *
+ * Instances are thread-safe.
+ */
+public class TpmQuoteVerifier {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TpmQuoteVerifier.class);
+
+    private static final ThreadLocal<Map<Integer, Signature>> SIGNATURES = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<DigestAlgorithm, MessageDigest>> MESSAGE_DIGESTS = ThreadLocal.withInitial(() -> new EnumMap<>(DigestAlgorithm.class));
+    private static final ThreadLocal<byte[]> DIGEST_BUFFER = ThreadLocal.withInitial(() -> new byte[64]);
+
+    public enum Status {
+        VALID,
+        /** the quote cannot be parsed */
+        MALFORMED,
+        /** the signature scheme or hash algorithm is not supported */
+        UNSUPPORTED_ALGORITHM,
+        /** the extra data of the quote is not the expected nonce */
+        NONCE_MISMATCH,
+        /**
+         * a selected PCR is missing from the manifest, a PCR of the manifest
+         * is not selected, or the PCR digest does not match
+         */
+        PCR_MISMATCH,
+        /** the quote was not signed by the AIK */
+        INVALID_SIGNATURE
+    }
+
+    private final LongAdder validCount = new LongAdder();
+    private final LongAdder invalidCount = new LongAdder();
+
+    /**
+     * Verifies the quote of a trust agent response with its AIK certificate.
+     *
+     * @param nonce the extra data the quote was requested with
+     * @param pcrManifest PCR values to check the PCR digest against, or null
+     * to skip that check; the quote must select every PCR it holds
+     */
+    public Result verify(TpmQuoteResponse response, byte[] nonce, PcrManifest pcrManifest) {
+        if (response.quote == null) {
+            return count(new Result(Status.MALFORMED, null, "Quote response has no quote"));
+        }
+        if (response.aik == null) {
+            return count(new Result(Status.INVALID_SIGNATURE, null, "Quote response has no AIK certificate"));
+        }
+        return verify(ByteBuffer.wrap(response.quote), response.aik.getPublicKey(), nonce, pcrManifest);
+    }
+
+    /**
+     * @param quote the quote, between the position and the limit of the buffer
+     * @param aik public key of the AIK
+     * @param nonce the extra data the quote was requested with
+     * @param pcrManifest PCR values to check the PCR digest against, or null
+     * to skip that check; the quote must select every PCR it holds
+     */
+    public Result verify(ByteBuffer quote, PublicKey aik, byte[] nonce, PcrManifest pcrManifest) {
+        TpmQuote parsed;
+        try {
+            parsed = TpmQuote.parse(quote);
+        } catch (IllegalArgumentException e) {
+            return count(new Result(Status.MALFORMED, null, e.getMessage()));
+        }
+        return count(verify(parsed, aik, nonce, pcrManifest));
+    }
+
+    private Result verify(TpmQuote quote, PublicKey aik, byte[] nonce, PcrManifest pcrManifest) {
+        DigestAlgorithm hash = TpmQuote.digestAlgorithm(quote.getSignatureHashAlgorithm());
+        if (hash == null || !PcrBankType.isSupported(hash)) {
+            return new Result(Status.UNSUPPORTED_ALGORITHM, quote, String.format("Unsupported hash algorithm 0x%04x", quote.getSignatureHashAlgorithm()));
+        }
+        if (nonce == null || !isEqual(quote.extraData(), nonce)) {
+            return new Result(Status.NONCE_MISMATCH, quote, "Quote extra data does not match the nonce");
+        }
+        if (pcrManifest != null) {
+            String mismatch = checkPcrDigest(quote, hash, pcrManifest);
+            if (mismatch != null) {
+                return new Result(Status.PCR_MISMATCH, quote, mismatch);
+            }
+        }
+        Signature signature;
+        try {
+            signature = signature(quote.getSignatureAlgorithm(), hash);
+        } catch (GeneralSecurityException e) {
+            log.debug("Cannot verify quote signature: {}", e.getMessage());
+            return new Result(Status.UNSUPPORTED_ALGORITHM, quote, e.getMessage());
+        }
+        try {
+            signature.initVerify(aik);
+            signature.update(quote.attest());
+            boolean verified;
+            if (quote.getSignatureAlgorithm() == TpmQuote.TPM_ALG_ECDSA) {
+                verified = signature.verify(derSignature(quote.signature(), quote.signatureS()));
+            } else {
+                ByteBuffer value = quote.signature();
+                if (value.hasArray()) {
+                    verified = signature.verify(value.array(), value.arrayOffset() + value.position(), value.remaining());
+                } else {
+                    byte[] copy = new byte[value.remaining()];
+                    value.get(copy);
+                    verified = signature.verify(copy);
+                }
+            }
+            if (!verified) {
+                return new Result(Status.INVALID_SIGNATURE, quote, "Quote signature does not match the AIK");
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return new Result(Status.INVALID_SIGNATURE, quote, e.getMessage());
+        }
+        return new Result(Status.VALID, quote, null);
+    }
+
+    /**
+     * @return null if the PCR digest matches, otherwise the reason it does not
+     */
+    private static String checkPcrDigest(TpmQuote quote, DigestAlgorithm hash, PcrManifest pcrManifest) {
+        String uncovered = checkPcrSelection(quote, pcrManifest);
+        if (uncovered != null) {
+            return uncovered;
+        }
+        MessageDigest md = messageDigest(hash);
+        md.reset();
+        for (int i = 0; i < quote.getSelectionCount(); i++) {
+            DigestAlgorithm bank = TpmQuote.digestAlgorithm(quote.getSelectedBank(i));
+            int selected = quote.getSelectedPcrs(i);
+            if (selected == 0) {
+                continue;
+            }
+            if (bank == null) {
+                return String.format("Unsupported PCR bank 0x%04x", quote.getSelectedBank(i));
+            }
+            for (int index = 0; index < Integer.SIZE; index++) {
+                if ((selected & (1 << index)) == 0) {
+                    continue;
+                }
+                Pcr pcr = pcrManifest.getPcr(bank, index);
+                if (pcr == null || pcr.getValue() == null) {
+                    return String.format("PCR %d of bank %s is not in the manifest", index, bank);
+                }
+                md.update(pcr.getValue().toByteArray());
+            }
+        }
+        int length = md.getDigestLength();
+        byte[] digest = DIGEST_BUFFER.get();
+        try {
+            md.digest(digest, 0, length);
+        } catch (DigestException e) {
+            md.reset();
+            throw new IllegalStateException("Cannot compute PCR digest", e);
+        }
+        ByteBuffer expected = quote.pcrDigest();
+        if (expected.remaining() != length || !isEqual(expected, digest, length)) {
+            return "PCR digest does not match the manifest";
+        }
+        return null;
+    }
+
+    /**
+     * @return null if the quote selects at least one PCR and every PCR of
+     * the manifest, otherwise the reason it does not
+     */
+    private static String checkPcrSelection(TpmQuote quote, PcrManifest pcrManifest) {
+        PcrBankType[] types = PcrBankType.values();
+        int[] selected = new int[types.length];
+        boolean any = false;
+        for (int i = 0; i < quote.getSelectionCount(); i++) {
+            int pcrs = quote.getSelectedPcrs(i);
+            if (pcrs == 0) {
+                continue;
+            }
+            DigestAlgorithm bank = TpmQuote.digestAlgorithm(quote.getSelectedBank(i));
+            if (bank == null) {
+                return String.format("Unsupported PCR bank 0x%04x", quote.getSelectedBank(i));
+            }
+            selected[PcrBankType.valueOf(bank).ordinal()] |= pcrs;
+            any = true;
+        }
+        if (!any) {
+            return "Quote does not select any PCR";
+        }
+        for (PcrBankType type : types) {
+            int missing = 0;
+            for (int index = 0; index < PcrBank.PCR_COUNT; index++) {
+                if ((selected[type.ordinal()] & (1 << index)) == 0 && pcrManifest.containsPcr(type.getAlgorithm(), PcrIndex.valueOf(index))) {
+                    missing |= 1 << index;
+                }
+            }
+            if (missing != 0) {
+                return String.format("PCR %d of bank %s is not selected by the quote", Integer.numberOfTrailingZeros(missing), type.getAlgorithm());
+            }
+        }
+        return null;
+    }
+
+    private static boolean isEqual(ByteBuffer buffer, byte[] value) {
+        return buffer.remaining() == value.length && isEqual(buffer, value, value.length);
+    }
+
+    /**
+     * Compares in constant time for a given length, like MessageDigest.isEqual.
+     */
+    private static boolean isEqual(ByteBuffer buffer, byte[] value, int length) {
+        int position = buffer.position();
+        int result = 0;
+        for (int i = 0; i < length; i++) {
+            result |= buffer.get(position + i) ^ value[i];
+        }
+        return result == 0;
+    }
+
+    private static MessageDigest messageDigest(DigestAlgorithm hash) {
+        Map<DigestAlgorithm, MessageDigest> digests = MESSAGE_DIGESTS.get();
+        MessageDigest md = digests.get(hash);
+        if (md == null) {
+            String algorithm = PcrBankType.valueOf(hash).getMessageDigestAlgorithm();
+            try {
+                md = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Digest algorithm not available: " + algorithm, e);
+            }
+            digests.put(hash, md);
+        }
+        return md;
+    }
+
+    private static Signature signature(int scheme, DigestAlgorithm hash) throws GeneralSecurityException {
+        Map<Integer, Signature> signatures = SIGNATURES.get();
+        Integer key = (scheme << 16) | hash.ordinal();
+        Signature signature = signatures.get(key);
+        if (signature == null) {
+            String hashName = hash.name();
+            switch (scheme) {
+                case TpmQuote.TPM_ALG_RSASSA:
+                    signature = Signature.getInstance(hashName + "withRSA");
+                    break;
+                case TpmQuote.TPM_ALG_ECDSA:
+                    signature = Signature.getInstance(hashName + "withECDSA");
+                    break;
+                case TpmQuote.TPM_ALG_RSAPSS:
+                    PcrBankType type = PcrBankType.valueOf(hash);
+                    signature = Signature.getInstance("RSASSA-PSS");
+                    signature.setParameter(new PSSParameterSpec(type.getMessageDigestAlgorithm(), "MGF1",
+                            new MGF1ParameterSpec(type.getMessageDigestAlgorithm()), type.getDigestLength(), 1));
+                    break;
+                default:
+                    throw new NoSuchAlgorithmException(String.format("Unsupported signature algorithm 0x%04x", scheme));
+            }
+            signatures.put(key, signature);
+        }
+        return signature;
+    }
+
+    /**
+     * Encodes an ECDSA signature as the DER SEQUENCE of the INTEGERs r and s
+     * expected by Signature.
+     */
+    private static byte[] derSignature(ByteBuffer r, ByteBuffer s) {
+        int rLength = integerLength(r);
+        int sLength = integerLength(s);
+        int contentLength = 2 + rLength + 2 + sLength;
+        if (rLength > 127 || sLength > 127 || contentLength > 255) {
+            throw new IllegalArgumentException("ECDSA signature is too long");
+        }
+        byte[] der = new byte[contentLength + (contentLength > 127 ? 3 : 2)];
+        int offset = 0;
+        der[offset++] = 0x30;
+        if (contentLength > 127) {
+            der[offset++] = (byte) 0x81;
+        }
+        der[offset++] = (byte) contentLength;
+        offset = putInteger(der, offset, r, rLength);
+        putInteger(der, offset, s, sLength);
+        return der;
+    }
+
+    /**
+     * @return length of the unsigned big-endian value as a DER INTEGER, without leading zeros
+     */
+    private static int integerLength(ByteBuffer value) {
+        int start = firstNonZero(value);
+        int length = value.limit() - start;
+        if (length == 0) {
+            return 1;
+        }
+        return (value.get(start) & 0x80) != 0 ? length + 1 : length;
+    }
+
+    private static int putInteger(byte[] der, int offset, ByteBuffer value, int length) {
+        der[offset++] = 0x02;
+        der[offset++] = (byte) length;
+        int start = firstNonZero(value);
+        int end = offset + length;
+        for (int i = value.limit() - 1; i >= start; i--) {
+            der[--end] = value.get(i);
+        }
+        return offset + length;
+    }
+
+    private static int firstNonZero(ByteBuffer value) {
+        int start = value.position();
+        while (start < value.limit() && value.get(start) == 0) {
+            start++;
+        }
+        return start;
+    }
+
+    private Result count(Result result) {
+        if (result.isValid()) {
+            validCount.increment();
+        } else {
+            invalidCount.increment();
+            log.debug("Quote verification failed: {} {}", result.getStatus(), result.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * @return number of quotes verified successfully
+     */
+    public long getValidCount() {
+        return validCount.sum();
+    }
+
+    /**
+     * @return number of quotes that failed verification
+     */
+    public long getInvalidCount() {
+        return invalidCount.sum();
+    }
+
+    public static class Result {
+        private final Status status;
+        private final TpmQuote quote;
+        private final String message;
+
+        Result(Status status, TpmQuote quote, String message) {
+            this.status = status;
+            this.quote = quote;
+            this.message = message;
+        }
+
+        public boolean isValid() {
+            return status == Status.VALID;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the parsed quote, or null if it could not be parsed
+         */
+        public TpmQuote getQuote() {
+            return quote;
+        }
+
+        /**
+         * @return the reason the quote is not valid, or null
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return message == null ? status.name() : status + ": " + message;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.trustagent.client.jaxrs;
+
+import com.intel.dcsg.cpg.io.UUID;
+import com.intel.dcsg.cpg.tls.policy.TlsConnection;
+import com.intel.mtwilson.core.common.model.HostInfo;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.trustagent.model.TagWriteRequest;
+import com.intel.mtwilson.core.common.trustagent.model.TpmQuoteRequest;
+import com.intel.mtwilson.core.common.trustagent.model.TpmQuoteResponse;
+import com.intel.mtwilson.core.common.trustagent.model.VMAttestationRequest;
+import com.intel.mtwilson.core.common.trustagent.model.VMAttestationResponse;
+import com.intel.mtwilson.core.common.trustagent.model.VMQuoteResponse;
+import com.intel.mtwilson.jaxrs2.client.MtWilsonClient;
+import com.intel.mtwilson.jaxrs2.mediatype.CryptoMediaType;
+import com.intel.wml.manifest.xml.Manifest;
+import com.intel.wml.measurement.xml.Measurement;
+import java.io.Closeable;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Non-blocking counterpart of {@link TrustAgentClient}. Every endpoint returns
+ * a {@link CompletableFuture} that is completed from the JAX-RS async invoker
+ * callback, so no caller thread is parked while a request is on the wire.
+ *
+ * The number of requests in flight is bounded per client instance. Requests
+ * submitted while the limit is reached are queued (without blocking the caller)
+ * and dispatched as earlier requests complete.
+ *
+ * Errors are reported by completing the future exceptionally. A response with
+ * a non-2xx status completes the future with a {@link WebApplicationException},
+ * the same exception the synchronous client throws. This includes
+ * {@link #writeTag(byte[], UUID)}, which in the synchronous client ignores
+ * the status of the response.
+ *
+ * {@link #close()} closes the underlying JAX-RS client once the requests
+ * already submitted have completed.
+ */
+public class AsyncTrustAgentClient extends MtWilsonClient implements Closeable {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AsyncTrustAgentClient.class);
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final Queue<PendingRequest<?>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean clientClosed = new AtomicBoolean(false);
+    private volatile boolean closed;
+    private TrustAgentCertificateCache certificateCache;
+    private String certificateCacheKey;
+
+    public AsyncTrustAgentClient(Properties properties, TlsConnection tlsConnection) throws Exception {
+        this(properties, tlsConnection, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param properties client configuration, same as for {@link TrustAgentClient}
+     * @param tlsConnection trust agent URL and TLS policy
+     * @param maxInFlight maximum number of requests on the wire at any time; must be positive
+     * @throws Exception
+     */
+    public AsyncTrustAgentClient(Properties properties, TlsConnection tlsConnection, int maxInFlight) throws Exception {
+        super(properties, tlsConnection);
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return number of requests currently on the wire
+     */
+    public int getInFlightCount() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * @return number of requests waiting for an in-flight slot
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @see TrustAgentClient#setCertificateCache(com.intel.mtwilson.core.common.trustagent.client.jaxrs.TrustAgentCertificateCache)
+     */
+    public void setCertificateCache(TrustAgentCertificateCache certificateCache) {
+        this.certificateCache = certificateCache;
+    }
+
+    public TrustAgentCertificateCache getCertificateCache() {
+        return certificateCache;
+    }
+
+    /**
+     * @see TrustAgentClient#setCertificateCacheKey(java.lang.String)
+     */
+    public void setCertificateCacheKey(String certificateCacheKey) {
+        this.certificateCacheKey = certificateCacheKey;
+    }
+
+    public String getCertificateCacheKey() {
+        return certificateCacheKey == null ? getTarget().getUri().toString() : certificateCacheKey;
+    }
+
+    /**
+     * @see TrustAgentClient#getAik()
+     */
+    public CompletableFuture<X509Certificate> getAik() {
+        return cached(TrustAgentCertificateCache.Kind.AIK, this::fetchAik);
+    }
+
+    private CompletableFuture<X509Certificate> fetchAik() {
+        log.debug("target: {}", getTarget().getUri().toString());
+        Invocation.Builder request = getTarget()
+                .path("/aik")
+                .request()
+                .accept(CryptoMediaType.APPLICATION_PKIX_CERT);
+        return submit(request, HttpMethod.GET, null, X509Certificate.class);
+    }
+
+    /**
+     * @see TrustAgentClient#getAikCa()
+     */
+    public CompletableFuture<X509Certificate> getAikCa() {
+        return cached(TrustAgentCertificateCache.Kind.AIK_CA, this::fetchAikCa);
+    }
+
+    private CompletableFuture<X509Certificate> fetchAikCa() {
+        log.debug("target: {}", getTarget().getUri().toString());
+        Invocation.Builder request = getTarget()
+                .path("/aik/ca")
+                .request()
+                .accept(CryptoMediaType.APPLICATION_PKIX_CERT);
+        return submit(request, HttpMethod.GET, null, X509Certificate.class);
+    }
+
+    /**
+     * @see TrustAgentClient#getHostInfo()
+     */
+    public CompletableFuture<HostInfo> getHostInfo() {
+        log.debug("target: {}", getTarget().getUri().toString());
+        Invocation.Builder request = getTarget()
+                .path("/host")
+                .request()
+                .accept(MediaType.APPLICATION_JSON);
+        return submit(request, HttpMethod.GET, null, HostInfo.class);
+    }
+
+    /**
+     * Unlike the synchronous client, which ignores the response, the future
+     * completes with a WebApplicationException if the trust agent does not
+     * accept the tag.
+     *
+     * @see TrustAgentClient#writeTag(byte[], com.intel.dcsg.cpg.io.UUID)
+     */
+    public CompletableFuture<Void> writeTag(byte[] tag, UUID hardwareUuid) {
+        TagWriteRequest tagWriteRequest = new TagWriteRequest();
+        tagWriteRequest.setTag(tag);
+        tagWriteRequest.setHardwareUuid(hardwareUuid);
+        Invocation.Builder request = getTarget()
+                .path("/tag")
+                .request()
+                .accept(MediaType.APPLICATION_JSON);
+        return submit(request, HttpMethod.POST, Entity.json(tagWriteRequest), Void.class);
+    }
+
+    /**
+     * @see TrustAgentClient#getTpmQuote(byte[], int[])
+     */
+    public CompletableFuture<TpmQuoteResponse> getTpmQuote(byte[] nonce, int[] pcrs) {
+        TpmQuoteRequest tpmQuoteRequest = new TpmQuoteRequest();
+        tpmQuoteRequest.setNonce(nonce);
+        tpmQuoteRequest.setPcrs(pcrs);
+        return getTpmQuote(tpmQuoteRequest);
+    }
+
+    /**
+     * @see TrustAgentClient#getTpmQuote(byte[], int[], java.util.List)
+     */
+    public CompletableFuture<TpmQuoteResponse> getTpmQuote(byte[] nonce, int[] pcrs, List<String> pcrBank) {
+        TpmQuoteRequest tpmQuoteRequest = new TpmQuoteRequest();
+        tpmQuoteRequest.setNonce(nonce);
+        tpmQuoteRequest.setPcrs(pcrs);
+        tpmQuoteRequest.setPcrbanks(pcrBank);
+        return getTpmQuote(tpmQuoteRequest);
+    }
+
+    /**
+     * @see TrustAgentClient#getTpmQuote(byte[], int[], java.lang.String[])
+     */
+    public CompletableFuture<TpmQuoteResponse> getTpmQuote(byte[] nonce, int[] pcrs, String[] pcrBanks) {
+        return getTpmQuote(nonce, pcrs, Arrays.asList(pcrBanks));
+    }
+
+    private CompletableFuture<TpmQuoteResponse> getTpmQuote(TpmQuoteRequest tpmQuoteRequest) {
+        log.debug("target: {}", getTarget().getUri().toString());
+        Invocation.Builder request = getTarget()
+                .path("/tpm/quote")
+                .request()
+                .accept(MediaType.APPLICATION_XML);
+        return submit(request, HttpMethod.POST, Entity.json(tpmQuoteRequest), TpmQuoteResponse.class);
+    }
+
+    /**
+     * @see TrustAgentClient#getBindingKeyCertificate()
+     */
+    public CompletableFuture<X509Certificate> getBindingKeyCertificate() {
+        return cached(TrustAgentCertificateCache.Kind.BINDING_KEY, this::fetchBindingKeyCertificate);
+    }
+
+    private CompletableFuture<X509Certificate> fetchBindingKeyCertificate() {
+        log.debug("target: {}", getTarget().getUri().toString());
+        Invocation.Builder request = getTarget()
+                .path("/binding-key-certificate")
+                .request()
+                .accept(CryptoMediaType.APPLICATION_PKIX_CERT);
+        return submit(request, HttpMethod.GET, null, X509Certificate.class);
+    }
+
+    /**
+     * Issues the quote, AIK, binding key certificate and host info requests
+     * concurrently and completes with the assembled HostManifest once all of
+     * them have completed. A missing binding key certificate is not an error.
+     *
+     * @see TrustAgentClient#getHostManifest(byte[], int[], java.util.List)
+     */
+    public CompletableFuture<HostManifest> getHostManifest(byte[] nonce, int[] pcrs, List<String> pcrBanks) {
+        CompletableFuture<TpmQuoteResponse> tpmQuoteResponse = getTpmQuote(nonce, pcrs, pcrBanks);
+        CompletableFuture<X509Certificate> aik = getAik();
+        CompletableFuture<HostInfo> hostInfo = getHostInfo();
+        CompletableFuture<X509Certificate> bindingKeyRequest = getBindingKeyCertificate();
+        CompletableFuture<X509Certificate> bindingKeyCertificate = bindingKeyRequest.exceptionally(e -> {
+            log.debug("Binding key certificate not available: {}", e.getMessage());
+            return null;
+        });
+        return cancelling(CompletableFuture.allOf(tpmQuoteResponse, aik, hostInfo, bindingKeyCertificate)
+                .thenApply(ignored -> HostManifestAssembler.assemble(hostInfo.join(), aik.join(), bindingKeyCertificate.join(), tpmQuoteResponse.join())),
+                tpmQuoteResponse, aik, hostInfo, bindingKeyRequest);
+    }
+
+    /**
+     * @see TrustAgentClient#getVMAttestationStatus(java.lang.String)
+     */
+    public CompletableFuture<VMAttestationResponse> getVMAttestationStatus(String vmInstanceId) {
+        VMAttestationRequest vmAttestationRequest = new VMAttestationRequest();
+        vmAttestationRequest.setVmInstanceId(vmInstanceId);
+        log.debug("target: {}", getTarget().getUri().toString());
+        Invocation.Builder request = getTarget()
+                .path("/vrtm/status")
+                .request()
+                .accept(MediaType.APPLICATION_JSON);
+        return submit(request, HttpMethod.POST, Entity.json(vmAttestationRequest), VMAttestationResponse.class);
+    }
+
+    /**
+     * @see TrustAgentClient#getVMAttestationReport(com.intel.mtwilson.core.common.trustagent.model.VMAttestationRequest)
+     */
+    public CompletableFuture<VMQuoteResponse> getVMAttestationReport(VMAttestationRequest obj) {
+        log.debug("target: {}", getTarget().getUri().toString());
+        Invocation.Builder request = getTarget()
+                .path("/vrtm/report")
+                .request()
+                .accept(MediaType.APPLICATION_JSON);
+        return submit(request, HttpMethod.POST, Entity.json(obj), VMQuoteResponse.class);
+    }
+
+    /**
+     * @see TrustAgentClient#deployManifest(com.intel.wml.manifest.xml.Manifest)
+     */
+    public CompletableFuture<Void> deployManifest(Manifest manifest) {
+        log.debug("target: {}", getTarget().getUri().toString());
+        Invocation.Builder request = getTarget()
+                .path("/deploy/manifest")
+                .request()
+                .accept(MediaType.APPLICATION_XML);
+        return submit(request, HttpMethod.POST, Entity.entity(manifest, MediaType.APPLICATION_XML), Void.class);
+    }
+
+    /**
+     * @see TrustAgentClient#getMeasurementFromManifest(com.intel.wml.manifest.xml.Manifest)
+     */
+    public CompletableFuture<Measurement> getMeasurementFromManifest(Manifest manifest) {
+        log.debug("target: {}", getTarget().getUri().toString());
+        Invocation.Builder request = getTarget()
+                .path("/host/application-measurement")
+                .request()
+                .accept(MediaType.APPLICATION_XML);
+        return submit(request, HttpMethod.POST, Entity.entity(manifest, MediaType.APPLICATION_XML), Measurement.class);
+    }
+
+    private CompletableFuture<X509Certificate> cached(TrustAgentCertificateCache.Kind kind, Supplier<CompletableFuture<X509Certificate>> fetch) {
+        final TrustAgentCertificateCache cache = certificateCache;
+        if (cache == null) {
+            return fetch.get();
+        }
+        final String hostKey = getCertificateCacheKey();
+        X509Certificate certificate = cache.get(hostKey, kind);
+        if (certificate != null) {
+            return CompletableFuture.completedFuture(certificate);
+        }
+        CompletableFuture<X509Certificate> request = fetch.get();
+        return cancelling(request.thenApply(fetched -> {
+            cache.put(hostKey, kind, fetched);
+            return fetched;
+        }), request);
+    }
+
+    /**
+     * Cancelling a dependent future does not cancel the futures it was
+     * derived from, so a cancelled caller would otherwise leave its requests
+     * queued or holding their in-flight slots. A request that is cancelled
+     * before it is dispatched is never sent.
+     */
+    private static <T> CompletableFuture<T> cancelling(final CompletableFuture<T> derived, final CompletableFuture<?>... sources) {
+        derived.whenComplete((value, error) -> {
+            if (derived.isCancelled()) {
+                for (CompletableFuture<?> source : sources) {
+                    source.cancel(false);
+                }
+            }
+        });
+        return derived;
+    }
+
+    /**
+     * Queues the request and dispatches as many queued requests as the
+     * in-flight limit allows. The entity is read and the response closed on
+     * the callback thread once the response arrives, before the in-flight
+     * slot of the request is released.
+     */
+    private <T> CompletableFuture<T> submit(Invocation.Builder request, String method, Entity<?> entity, final Class<T> responseType) {
+        if (closed) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Client is closed"));
+            return failed;
+        }
+        PendingRequest<T> pendingRequest = new PendingRequest<>(request, method, entity, responseType);
+        pending.add(pendingRequest);
+        dispatch();
+        return pendingRequest.result;
+    }
+
+    private static <T> T readEntity(Response response, Class<T> responseType) {
+        try {
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                throw new WebApplicationException(response);
+            }
+            if (responseType == Void.class) {
+                return null;
+            }
+            return response.readEntity(responseType);
+        }
+        finally {
+            response.close();
+        }
+    }
+
+    private void dispatch() {
+        while (!pending.isEmpty() && permits.tryAcquire()) {
+            PendingRequest<?> next = pending.poll();
+            if (next == null || !next.start()) {
+                permits.release(); // another thread took the last request first
+            }
+        }
+    }
+
+    private void complete() {
+        permits.release();
+        dispatch();
+        closeIfIdle();
+    }
+
+    /**
+     * Rejects new requests and closes the JAX-RS client as soon as no
+     * request is in flight or queued.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeIfIdle();
+    }
+
+    private void closeIfIdle() {
+        if (closed && pending.isEmpty() && permits.availablePermits() == maxInFlight && clientClosed.compareAndSet(false, true)) {
+            getClient().close();
+        }
+    }
+
+    private class PendingRequest<T> implements InvocationCallback<Response> {
+        private final Invocation.Builder request;
+        private final String method;
+        private final Entity<?> entity;
+        private final Class<T> responseType;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final AtomicBoolean started = new AtomicBoolean(false);
+
+        PendingRequest(Invocation.Builder request, String method, Entity<?> entity, Class<T> responseType) {
+            this.request = request;
+            this.method = method;
+            this.entity = entity;
+            this.responseType = responseType;
+        }
+
+        /**
+         * @return false if the request was already started, in which case it does not hold the permit
+         */
+        boolean start() {
+            if (result.isDone() || !started.compareAndSet(false, true)) {
+                return false;
+            }
+            try {
+                if (entity == null) {
+                    request.async().method(method, this);
+                } else {
+                    request.async().method(method, entity, this);
+                }
+            } catch (RuntimeException e) {
+                failed(e);
+            }
+            return true;
+        }
+
+        @Override
+        public void completed(Response value) {
+            T body;
+            try {
+                body = readEntity(value, responseType);
+            } catch (RuntimeException e) {
+                failed(e);
+                return;
+            }
+            complete();
+            result.complete(body);
+        }
+
+        @Override
+        public void failed(Throwable throwable) {
+            complete();
+            result.completeExceptionally(throwable);
+        }
+    }
+}
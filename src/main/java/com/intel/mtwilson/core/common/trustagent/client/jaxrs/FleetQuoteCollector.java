@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.trustagent.client.jaxrs;
+
+import com.intel.mtwilson.core.common.datatypes.ConnectionString;
+import com.intel.mtwilson.core.common.model.HostInfo;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.tpm.NonceService;
+import com.intel.mtwilson.core.common.trustagent.model.TpmQuoteResponse;
+import com.intel.mtwilson.core.common.utils.LatencyHistogram;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects TPM quote, host info and AIK certificate from many trust agents
+ * concurrently and streams each assembled HostManifest to a listener as soon
+ * as that host completes.
+ *
+ * All network I/O goes through {@link AsyncTrustAgentClient}, so the number of
+ * hosts in flight is limited only by the configured concurrency and not by a
+ * thread pool. The scheduler is used for deadlines and retry backoff only.
+ * A retry repeats only the requests that failed, and a host whose deadline
+ * expires has its outstanding requests cancelled. Nonces come from
+ * {@link NonceService#newNonce()}, which keeps a generator per thread.
+ *
+ * Example:
+ * <pre>
+ * FleetQuoteCollector collector = new FleetQuoteCollector(host -> new AsyncTrustAgentClient(properties, new TlsConnection(host.getURL(), tlsPolicy)), scheduler);
+ * collector.setConcurrency(500);
+ * collector.collect(hosts, new int[] {0,17,18,19}, Arrays.asList("SHA1","SHA256"), listener).join();
+ * </pre>
+ */
+public class FleetQuoteCollector {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(FleetQuoteCollector.class);
+
+    /**
+     * Creates or looks up the client for a host. It is called again for
+     * every retry, so a provider can replace a client whose connection
+     * failed instead of having the retry reuse it.
+     */
+    public interface ClientProvider {
+        AsyncTrustAgentClient getClient(ConnectionString host) throws Exception;
+    }
+
+    /**
+     * Receives results as hosts complete. Methods are invoked on the client
+     * callback threads, possibly concurrently, and should not block.
+     */
+    public interface Listener {
+        /**
+         * @param host the host that was attested
+         * @param nonce the nonce sent with the quote request that produced the response
+         * @param hostManifest AIK certificate, host info and quote-derived fields
+         * @param tpmQuoteResponse raw quote response, needed to verify the quote and build the PCR manifest
+         */
+        void onManifest(ConnectionString host, byte[] nonce, HostManifest hostManifest, TpmQuoteResponse tpmQuoteResponse);
+
+        /**
+         * @param host the host that could not be attested
+         * @param cause the last failure, or a TimeoutException if the host deadline expired
+         */
+        void onFailure(ConnectionString host, Throwable cause);
+    }
+
+    private final ClientProvider clientProvider;
+    private final ScheduledExecutorService scheduler;
+    private final Statistics statistics = new Statistics();
+    private int concurrency = 100;
+    private long hostTimeoutMillis = TimeUnit.SECONDS.toMillis(60);
+    private int maxRetries = 2;
+    private long initialBackoffMillis = 500;
+    private long maxBackoffMillis = TimeUnit.SECONDS.toMillis(10);
+
+    public FleetQuoteCollector(ClientProvider clientProvider, ScheduledExecutorService scheduler) {
+        this.clientProvider = clientProvider;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param concurrency maximum number of hosts being collected at the same time
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @param timeout total time allowed for one host, including retries
+     * @param unit
+     */
+    public void setHostTimeout(long timeout, TimeUnit unit) {
+        this.hostTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    public long getHostTimeout(TimeUnit unit) {
+        return unit.convert(hostTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param maxRetries number of additional attempts after the first failure
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Retry delays grow exponentially from the initial backoff up to the
+     * maximum, and each delay is randomized ("full jitter") so that hosts
+     * that failed together do not retry together.
+     */
+    public void setRetryBackoff(long initialBackoff, long maxBackoff, TimeUnit unit) {
+        this.initialBackoffMillis = unit.toMillis(initialBackoff);
+        this.maxBackoffMillis = unit.toMillis(maxBackoff);
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Starts collection and returns immediately.
+     *
+     * @param hosts hosts to attest
+     * @param pcrs PCR indexes to quote
+     * @param pcrBanks PCR banks to quote, for example SHA1 and SHA256
+     * @param listener receives one callback per host
+     * @return completes when every host has been reported to the listener
+     */
+    public CompletableFuture<Void> collect(Collection<ConnectionString> hosts, int[] pcrs, List<String> pcrBanks, Listener listener) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (hosts.isEmpty()) {
+            done.complete(null);
+            return done;
+        }
+        statistics.start();
+        Batch batch = new Batch(new ArrayList<>(hosts), pcrs, pcrBanks, listener, done);
+        for (int i = 0; i < concurrency; i++) {
+            if (!batch.startNext()) {
+                break;
+            }
+        }
+        return done;
+    }
+
+    private class Batch {
+        private final Iterator<ConnectionString> remaining;
+        private final AtomicInteger outstanding;
+        private final int[] pcrs;
+        private final List<String> pcrBanks;
+        private final Listener listener;
+        private final CompletableFuture<Void> done;
+
+        Batch(List<ConnectionString> hosts, int[] pcrs, List<String> pcrBanks, Listener listener, CompletableFuture<Void> done) {
+            this.remaining = hosts.iterator();
+            this.outstanding = new AtomicInteger(hosts.size());
+            this.pcrs = pcrs;
+            this.pcrBanks = pcrBanks;
+            this.listener = listener;
+            this.done = done;
+        }
+
+        /**
+         * @return false when there are no more hosts to start
+         */
+        boolean startNext() {
+            ConnectionString host;
+            synchronized (remaining) {
+                if (!remaining.hasNext()) {
+                    return false;
+                }
+                host = remaining.next();
+            }
+            new HostCollection(this, host).start();
+            return true;
+        }
+
+        void finished() {
+            if (outstanding.decrementAndGet() == 0) {
+                done.complete(null);
+            } else {
+                scheduler.execute(this::startNext); // avoids unbounded recursion when hosts fail synchronously
+            }
+        }
+    }
+
+    private class HostCollection {
+        private final Batch batch;
+        private final ConnectionString host;
+        private final long startNanos = System.nanoTime();
+        private final long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(hostTimeoutMillis);
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> deadline;
+        // requests of the latest attempt; only those that failed are sent again
+        private volatile byte[] nonce;
+        private volatile CompletableFuture<TpmQuoteResponse> quote;
+        private volatile CompletableFuture<HostInfo> hostInfo;
+        private volatile CompletableFuture<X509Certificate> aik;
+
+        HostCollection(Batch batch, ConnectionString host) {
+            this.batch = batch;
+            this.host = host;
+        }
+
+        void start() {
+            deadline = scheduler.schedule(() -> {
+                TimeoutException timeout = new TimeoutException(String.format("Collection from %s did not complete within %d ms", host.getURL(), hostTimeoutMillis));
+                if (result.completeExceptionally(timeout)) {
+                    statistics.timeouts.increment();
+                    cancelRequests();
+                    report(null, null, null, timeout);
+                }
+            }, hostTimeoutMillis, TimeUnit.MILLISECONDS);
+            attempt(0);
+        }
+
+        private void attempt(final int attempt) {
+            if (result.isDone()) {
+                return;
+            }
+            final AsyncTrustAgentClient client;
+            try {
+                client = clientProvider.getClient(host);
+            } catch (Exception e) {
+                retryOrFail(attempt, e);
+                return;
+            }
+            if (isFailed(quote)) {
+                nonce = NonceService.newNonce();
+                quote = client.getTpmQuote(nonce, batch.pcrs, batch.pcrBanks);
+            }
+            if (isFailed(hostInfo)) {
+                hostInfo = client.getHostInfo();
+            }
+            if (isFailed(aik)) {
+                aik = client.getAik();
+            }
+            final byte[] quoteNonce = nonce;
+            final CompletableFuture<TpmQuoteResponse> quote = this.quote;
+            final CompletableFuture<HostInfo> hostInfo = this.hostInfo;
+            final CompletableFuture<X509Certificate> aik = this.aik;
+            if (result.isDone()) {
+                cancelRequests(); // the deadline expired while the requests were being sent
+                return;
+            }
+            CompletableFuture.allOf(quote, hostInfo, aik).whenComplete((ignored, error) -> {
+                if (error == null) {
+                    HostManifest hostManifest;
+                    try {
+                        hostManifest = HostManifestAssembler.assemble(hostInfo.join(), aik.join(), null, quote.join());
+                    } catch (RuntimeException e) {
+                        fail(e);
+                        return;
+                    }
+                    if (result.complete(null)) {
+                        statistics.latency.recordNanos(System.nanoTime() - startNanos);
+                        statistics.succeeded.increment();
+                        report(quoteNonce, hostManifest, quote.join(), null);
+                    }
+                    return;
+                }
+                retryOrFail(attempt, unwrap(error));
+            });
+        }
+
+        private void retryOrFail(final int attempt, Throwable cause) {
+            long backoff = backoffMillis(attempt);
+            if (attempt < maxRetries && System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff) < deadlineNanos) {
+                log.debug("Attempt {} for host {} failed, retrying in {} ms: {}", attempt + 1, host.getURL(), backoff, cause.getMessage());
+                statistics.retries.increment();
+                scheduler.schedule(() -> attempt(attempt + 1), backoff, TimeUnit.MILLISECONDS);
+            } else {
+                fail(cause);
+            }
+        }
+
+        /**
+         * Cancelling a request that is still queued in the client keeps it
+         * from being sent.
+         */
+        private void cancelRequests() {
+            cancel(quote);
+            cancel(hostInfo);
+            cancel(aik);
+        }
+
+        private void fail(Throwable cause) {
+            if (result.completeExceptionally(cause)) {
+                report(null, null, null, cause);
+            }
+        }
+
+        private void report(byte[] nonce, HostManifest hostManifest, TpmQuoteResponse tpmQuoteResponse, Throwable cause) {
+            ScheduledFuture<?> pendingDeadline = deadline;
+            if (pendingDeadline != null) {
+                pendingDeadline.cancel(false);
+            }
+            try {
+                if (cause == null) {
+                    batch.listener.onManifest(host, nonce, hostManifest, tpmQuoteResponse);
+                } else {
+                    statistics.failed.increment();
+                    batch.listener.onFailure(host, cause);
+                }
+            } catch (RuntimeException e) {
+                log.error("Listener failed for host {}", host.getURL(), e);
+            } finally {
+                batch.finished();
+            }
+        }
+    }
+
+    private long backoffMillis(int attempt) {
+        long ceiling = initialBackoffMillis << Math.min(attempt, 30);
+        if (ceiling <= 0 || ceiling > maxBackoffMillis) {
+            ceiling = maxBackoffMillis;
+        }
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @return true if the request was not sent yet or failed
+     */
+    private static boolean isFailed(CompletableFuture<?> request) {
+        return request == null || request.isCompletedExceptionally();
+    }
+
+    private static void cancel(CompletableFuture<?> request) {
+        if (request != null) {
+            request.cancel(false);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Counters accumulated over the lifetime of the collector, or since the
+     * last {@link #reset()}.
+     */
+    public static class Statistics {
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private volatile long startNanos = 0;
+
+        private void start() {
+            if (startNanos == 0) {
+                startNanos = System.nanoTime();
+            }
+        }
+
+        public long getSucceeded() {
+            return succeeded.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        /**
+         * @return completed hosts (succeeded or failed) per second since the first collection started
+         */
+        public double getHostsPerSecond() {
+            long start = startNanos;
+            if (start == 0) {
+                return 0;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            return seconds <= 0 ? 0 : (getSucceeded() + getFailed()) / seconds;
+        }
+
+        /**
+         * @return per-host collection time of successful hosts
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getLatencyP99Millis() {
+            return latency.getPercentile(99, TimeUnit.MILLISECONDS);
+        }
+
+        public void reset() {
+            succeeded.reset();
+            failed.reset();
+            retries.reset();
+            timeouts.reset();
+            latency.reset();
+            startNanos = 0;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.trustagent.client.jaxrs;
+
+import com.intel.mtwilson.core.common.model.HostInfo;
+import com.intel.mtwilson.core.common.model.HostManifest;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.common.tpm.TpmQuote;
+import com.intel.mtwilson.core.common.trustagent.model.TpmQuoteResponse;
+import com.intel.mtwilson.core.common.utils.PcrEventLogParser;
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import javax.ws.rs.ProcessingException;
+
+/**
+ * Builds a HostManifest from the individual trust agent responses. The
+ * PcrManifest holds the PCR values appended to the quote and the event log
+ * of the quote response. The PCR values are only as trustworthy as the quote
+ * they came with; verify it with TpmQuoteVerifier before relying on them.
+ */
+final class HostManifestAssembler {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(HostManifestAssembler.class);
+
+    private HostManifestAssembler() {
+    }
+
+    /**
+     * @throws ProcessingException if the quote or the event log cannot be read
+     */
+    static HostManifest assemble(HostInfo hostInfo, X509Certificate aik, X509Certificate bindingKeyCertificate, TpmQuoteResponse tpmQuoteResponse) {
+        HostManifest hostManifest = new HostManifest();
+        hostManifest.setHostInfo(hostInfo);
+        hostManifest.setAikCertificate(aik);
+        hostManifest.setBindingKeyCertificate(bindingKeyCertificate);
+        if (hostInfo != null) {
+            hostManifest.setTpmEnabled(Boolean.parseBoolean(hostInfo.getTpmEnabled()));
+            hostManifest.setTxtEnabled(Boolean.parseBoolean(hostInfo.getTxtEnabled()));
+        }
+        if (tpmQuoteResponse != null) {
+            if (tpmQuoteResponse.tcbMeasurements != null) {
+                hostManifest.setMeasurementXmls(new ArrayList<>(tpmQuoteResponse.tcbMeasurements));
+            }
+            if (tpmQuoteResponse.isTagProvisioned) {
+                hostManifest.setProvisionedTag(tpmQuoteResponse.assetTag);
+            }
+            hostManifest.setPcrManifest(pcrManifest(tpmQuoteResponse));
+        }
+        return hostManifest;
+    }
+
+    private static PcrManifest pcrManifest(TpmQuoteResponse tpmQuoteResponse) {
+        PcrManifest pcrManifest = new PcrManifest();
+        if (tpmQuoteResponse.quote != null) {
+            try {
+                int count = TpmQuote.parse(tpmQuoteResponse.quote).copyPcrValues(pcrManifest);
+                if (count == 0) {
+                    log.debug("Quote response has no PCR values");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new ProcessingException("Cannot read PCR values from quote: " + e.getMessage(), e);
+            }
+        }
+        try {
+            new PcrEventLogParser().parse(tpmQuoteResponse, pcrManifest);
+        } catch (IOException e) {
+            throw new ProcessingException("Cannot read event log: " + e.getMessage(), e);
+        }
+        return pcrManifest;
+    }
+}
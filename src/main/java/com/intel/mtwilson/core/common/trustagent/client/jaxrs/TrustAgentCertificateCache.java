@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.trustagent.client.jaxrs;
+
+import com.intel.mtwilson.core.common.utils.BoundedCache;
+import java.security.cert.X509Certificate;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the AIK, AIK CA and binding key certificates reported by trust
+ * agents. These certificates only change when a host is re-provisioned, so
+ * they can be served from memory for most attestations instead of being
+ * fetched and DER-decoded every time.
+ *
+ * Entries are keyed by a host key chosen by the caller, typically the
+ * hardware UUID reported in HostInfo or the trust agent URL. Entries expire
+ * after the time to live and are fetched again on the next access; call
+ * {@link #invalidate(java.lang.String)} when a host is known to have been
+ * re-provisioned.
+ *
+ * One cache instance can be shared by any number of clients.
+ */
+public class TrustAgentCertificateCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TrustAgentCertificateCache.class);
+    public static final int DEFAULT_MAX_HOSTS = 50000;
+    public static final long DEFAULT_TTL_HOURS = 24;
+
+    public enum Kind { AIK, AIK_CA, BINDING_KEY }
+
+    private final BoundedCache<Key, X509Certificate> certificates;
+
+    public TrustAgentCertificateCache() {
+        this(DEFAULT_MAX_HOSTS, DEFAULT_TTL_HOURS, TimeUnit.HOURS);
+    }
+
+    /**
+     * @param maxHosts maximum number of hosts to keep certificates for
+     * @param ttl how long a certificate is served before it is fetched again
+     * @param unit unit of ttl
+     */
+    public TrustAgentCertificateCache(int maxHosts, long ttl, TimeUnit unit) {
+        this.certificates = new BoundedCache<>(maxHosts * Kind.values().length, ttl, unit, BoundedCache.Expiry.AFTER_WRITE);
+    }
+
+    /**
+     * @return the cached certificate, or null if it is not cached or has expired
+     */
+    public X509Certificate get(String hostKey, Kind kind) {
+        return certificates.get(new Key(hostKey, kind));
+    }
+
+    /**
+     * Returns the cached certificate, or fetches and caches it.
+     */
+    public X509Certificate get(String hostKey, Kind kind, Supplier<X509Certificate> fetch) {
+        X509Certificate certificate = get(hostKey, kind);
+        if (certificate == null) {
+            certificate = fetch.get();
+            put(hostKey, kind, certificate);
+        }
+        return certificate;
+    }
+
+    public void put(String hostKey, Kind kind, X509Certificate certificate) {
+        if (certificate == null) {
+            return;
+        }
+        certificates.put(new Key(hostKey, kind), certificate);
+        log.debug("Cached {} certificate for {}", kind, hostKey);
+    }
+
+    /**
+     * Removes all certificates cached for the host.
+     */
+    public void invalidate(String hostKey) {
+        for (Kind kind : Kind.values()) {
+            certificates.invalidate(new Key(hostKey, kind));
+        }
+    }
+
+    public void invalidateAll() {
+        certificates.invalidateAll();
+    }
+
+    public int size() {
+        return certificates.size();
+    }
+
+    public long getHitCount() {
+        return certificates.getHitCount();
+    }
+
+    public long getMissCount() {
+        return certificates.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return certificates.getEvictionCount();
+    }
+
+    public double getHitRate() {
+        return certificates.getHitRate();
+    }
+
+    private static final class Key {
+        private final String hostKey;
+        private final Kind kind;
+
+        Key(String hostKey, Kind kind) {
+            this.hostKey = hostKey;
+            this.kind = kind;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return kind == other.kind && hostKey.equals(other.hostKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(hostKey, kind);
+        }
+    }
+}
@@ -11,6 +11,7 @@ import com.intel.mtwilson.core.common.trustagent.model.VMAttestationResponse;
 import com.intel.mtwilson.core.common.trustagent.model.TpmQuoteRequest;
 import com.intel.mtwilson.core.common.trustagent.model.TpmQuoteResponse;
 import com.intel.mtwilson.core.common.model.HostInfo;
+import com.intel.mtwilson.core.common.model.HostManifest;
 import com.intel.dcsg.cpg.io.UUID;
 import com.intel.dcsg.cpg.tls.policy.TlsConnection;
 import com.intel.mtwilson.jaxrs2.client.MtWilsonClient;
@@ -19,6 +20,9 @@ import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.MediaType;
 
@@ -34,11 +38,38 @@ import static org.apache.commons.math3.complex.Complex.INF;
  */
 public class TrustAgentClient extends MtWilsonClient {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TrustAgentClient.class);
+    private TrustAgentCertificateCache certificateCache;
+    private String certificateCacheKey;
     
     public TrustAgentClient(Properties properties, TlsConnection tlsConnection) throws Exception {
         super(properties, tlsConnection);
     }
     
+    /**
+     * Serves the AIK, AIK CA and binding key certificates from the given cache
+     * when available. The cache may be shared with other clients.
+     * @param certificateCache cache to use, or null to always fetch the certificates
+     */
+    public void setCertificateCache(TrustAgentCertificateCache certificateCache) {
+        this.certificateCache = certificateCache;
+    }
+    
+    public TrustAgentCertificateCache getCertificateCache() {
+        return certificateCache;
+    }
+    
+    /**
+     * @param certificateCacheKey key under which this host's certificates are cached, for example
+     * the hardware UUID from {@link HostInfo#getHardwareUuid()}; defaults to the trust agent URL
+     */
+    public void setCertificateCacheKey(String certificateCacheKey) {
+        this.certificateCacheKey = certificateCacheKey;
+    }
+    
+    public String getCertificateCacheKey() {
+        return certificateCacheKey == null ? getTarget().getUri().toString() : certificateCacheKey;
+    }
+    
      /**
      * Retrieves the Attestation Identity Key (AIK) certificate for the host. The required content type can also be specified
      * as an extension in the URL.
@@ -84,6 +115,13 @@ public class TrustAgentClient extends MtWilsonClient {
      * </xmp></pre></div>
      */        
     public X509Certificate getAik() {
+        if (certificateCache != null) {
+            return certificateCache.get(getCertificateCacheKey(), TrustAgentCertificateCache.Kind.AIK, this::fetchAik);
+        }
+        return fetchAik();
+    }
+    
+    private X509Certificate fetchAik() {
         log.debug("target: {}", getTarget().getUri().toString());
         X509Certificate aik = getTarget()
                 .path("/aik")
@@ -135,6 +173,13 @@ public class TrustAgentClient extends MtWilsonClient {
      * </xmp></pre></div>
      */        
     public X509Certificate getAikCa() {
+        if (certificateCache != null) {
+            return certificateCache.get(getCertificateCacheKey(), TrustAgentCertificateCache.Kind.AIK_CA, this::fetchAikCa);
+        }
+        return fetchAikCa();
+    }
+    
+    private X509Certificate fetchAikCa() {
         log.debug("target: {}", getTarget().getUri().toString());
         X509Certificate aik = getTarget()
                 .path("/aik/ca")
@@ -482,6 +527,13 @@ public class TrustAgentClient extends MtWilsonClient {
      * </xmp></pre></div>
     */
     public X509Certificate getBindingKeyCertificate() {
+        if (certificateCache != null) {
+            return certificateCache.get(getCertificateCacheKey(), TrustAgentCertificateCache.Kind.BINDING_KEY, this::fetchBindingKeyCertificate);
+        }
+        return fetchBindingKeyCertificate();
+    }
+    
+    private X509Certificate fetchBindingKeyCertificate() {
         log.debug("target: {}", getTarget().getUri().toString());
         X509Certificate aik = getTarget()
                 .path("/binding-key-certificate")
@@ -491,6 +543,119 @@ public class TrustAgentClient extends MtWilsonClient {
         return aik;
     }
     
+    /**
+     * Retrieves everything needed to build a HostManifest in one call. The AIK
+     * certificate, binding key certificate, host info and TPM quote requests
+     * are independent, so they are issued concurrently on this client and the
+     * call takes about as long as the slowest of them instead of their sum.
+     * 
+     * The binding key certificate is optional: hosts that do not have one
+     * (for example TPM 1.2 or Windows hosts) yield a manifest without it.
+     * @param nonce - 20 byte nonce for the quote, see {@link #getTpmQuote(byte[], int[], java.util.List)}
+     * @param pcrs - List of PCRs for which the quote is needed.
+     * @param pcrBanks - TPM PCR banks to read from.
+     * @return HostManifest with the AIK certificate, binding key certificate, host info and the
+     * measurements and provisioned asset tag reported with the quote
+     * @since ISecL 1.5
+     * @mtwSampleApiCall
+     * <div style="word-wrap: break-word; width: 1024px"><pre><xmp>
+     *   TrustAgentClient client = new TrustAgentClient(properties, new TlsConnection(url, tlsPolicy));
+     *   HostManifest hostManifest = client.getHostManifest(nonce, new int[]{0, 17, 18, 19}, Arrays.asList("SHA1", "SHA256"));
+     * </xmp></pre></div>
+     */
+    public HostManifest getHostManifest(byte[] nonce, int[] pcrs, List<String> pcrBanks) {
+        TpmQuoteRequest tpmQuoteRequest = new TpmQuoteRequest();
+        tpmQuoteRequest.setNonce(nonce);
+        tpmQuoteRequest.setPcrs(pcrs);
+        tpmQuoteRequest.setPcrbanks(pcrBanks);
+        log.debug("target: {}", getTarget().getUri().toString());
+        Future<TpmQuoteResponse> tpmQuoteResponse = null;
+        Future<X509Certificate> aik = null;
+        Future<HostInfo> hostInfo = null;
+        Future<X509Certificate> bindingKeyCertificate = null;
+        try {
+            tpmQuoteResponse = getTarget()
+                    .path("/tpm/quote")
+                    .request()
+                    .accept(MediaType.APPLICATION_XML)
+                    .async()
+                    .post(Entity.json(tpmQuoteRequest), TpmQuoteResponse.class);
+            X509Certificate cachedAik = getCachedCertificate(TrustAgentCertificateCache.Kind.AIK);
+            aik = cachedAik != null ? null : getTarget()
+                    .path("/aik")
+                    .request()
+                    .accept(CryptoMediaType.APPLICATION_PKIX_CERT)
+                    .async()
+                    .get(X509Certificate.class);
+            hostInfo = getTarget()
+                    .path("/host")
+                    .request()
+                    .accept(MediaType.APPLICATION_JSON)
+                    .async()
+                    .get(HostInfo.class);
+            X509Certificate bindingKey = getCachedCertificate(TrustAgentCertificateCache.Kind.BINDING_KEY);
+            bindingKeyCertificate = bindingKey != null ? null : getTarget()
+                    .path("/binding-key-certificate")
+                    .request()
+                    .accept(CryptoMediaType.APPLICATION_PKIX_CERT)
+                    .async()
+                    .get(X509Certificate.class);
+            if (bindingKeyCertificate != null) {
+                try {
+                    bindingKey = await(bindingKeyCertificate);
+                    cacheCertificate(TrustAgentCertificateCache.Kind.BINDING_KEY, bindingKey);
+                } catch (RuntimeException e) {
+                    log.debug("Binding key certificate not available: {}", e.getMessage());
+                }
+            }
+            X509Certificate aikCertificate = cachedAik;
+            if (aik != null) {
+                aikCertificate = await(aik);
+                cacheCertificate(TrustAgentCertificateCache.Kind.AIK, aikCertificate);
+            }
+            return HostManifestAssembler.assemble(await(hostInfo), aikCertificate, bindingKey, await(tpmQuoteResponse));
+        } finally {
+            // stop the remaining requests when one of them failed
+            cancel(tpmQuoteResponse, aik, hostInfo, bindingKeyCertificate);
+        }
+    }
+    
+    private X509Certificate getCachedCertificate(TrustAgentCertificateCache.Kind kind) {
+        return certificateCache == null ? null : certificateCache.get(getCertificateCacheKey(), kind);
+    }
+    
+    private void cacheCertificate(TrustAgentCertificateCache.Kind kind, X509Certificate certificate) {
+        if (certificateCache != null) {
+            certificateCache.put(getCertificateCacheKey(), kind, certificate);
+        }
+    }
+    
+    private static void cancel(Future<?>... futures) {
+        for (Future<?> future : futures) {
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+    
+    /**
+     * Waits for an async request and rethrows its failure the way the
+     * equivalent synchronous request would have thrown it.
+     */
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException("Interrupted while waiting for trust agent response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ProcessingException(e.getCause());
+        }
+    }
+    
     /**
      * Retrieves a VM attestation status.
      * @param vmInstanceId - the orchestration engine instance ID.
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.trustagent.client.jaxrs;
+
+import com.intel.dcsg.cpg.tls.policy.TlsConnection;
+import com.intel.dcsg.cpg.tls.policy.TlsPolicy;
+import com.intel.mtwilson.core.common.datatypes.ConnectionString;
+import com.intel.mtwilson.core.common.utils.BoundedCache;
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches trust agent clients per host so that repeated attestations reuse
+ * the same JAX-RS client. A reused client keeps its HTTP keep-alive
+ * connections and its SSL context, and with it the TLS session cache, so
+ * subsequent requests to the same host skip the TCP connect and resume the
+ * TLS session instead of performing a full handshake.
+ *
+ * Clients are keyed by trust agent URL and TLS policy. The least recently
+ * used clients are evicted when the cache is full, and clients that have not
+ * been used for the idle timeout are evicted on the next lookup. A caller may
+ * still hold an evicted client, so eviction only drops it from the cache and
+ * the client stays usable; its connections are released when it is garbage
+ * collected or closed by the caller. Clients are closed only by
+ * {@link #invalidate(TlsConnection)}, {@link #invalidateAll()} and
+ * {@link #close()}, and asynchronous clients finish the requests already
+ * submitted before they close.
+ */
+public class TrustAgentClientFactory implements Closeable {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TrustAgentClientFactory.class);
+    public static final int DEFAULT_MAX_CLIENTS = 10000;
+    public static final long DEFAULT_IDLE_TIMEOUT_MINUTES = 10;
+
+    private final Properties properties;
+    private final TlsPolicy tlsPolicy;
+    private final BoundedCache<ClientKey, TrustAgentClient> clients;
+    private final BoundedCache<ClientKey, AsyncTrustAgentClient> asyncClients;
+    private TrustAgentCertificateCache certificateCache;
+
+    /**
+     * @param properties client configuration passed to every client created by this factory
+     * @param tlsPolicy policy used for clients looked up by ConnectionString; may be null
+     * if only TlsConnection lookups are used
+     */
+    public TrustAgentClientFactory(Properties properties, TlsPolicy tlsPolicy) {
+        this(properties, tlsPolicy, DEFAULT_MAX_CLIENTS, DEFAULT_IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public TrustAgentClientFactory(Properties properties, TlsPolicy tlsPolicy, int maxClients, long idleTimeout, TimeUnit unit) {
+        this.properties = properties;
+        this.tlsPolicy = tlsPolicy;
+        this.clients = new BoundedCache<>(maxClients, idleTimeout, unit, BoundedCache.Expiry.AFTER_ACCESS);
+        this.asyncClients = new BoundedCache<>(maxClients, idleTimeout, unit, BoundedCache.Expiry.AFTER_ACCESS);
+        this.clients.setRemovalListener((key, client, cause) -> close(key, client.getClient()::close, cause));
+        this.asyncClients.setRemovalListener((key, client, cause) -> close(key, client::close, cause));
+    }
+
+    private static void close(ClientKey key, Runnable close, BoundedCache.RemovalCause cause) {
+        if (cause == BoundedCache.RemovalCause.SIZE || cause == BoundedCache.RemovalCause.EXPIRED) {
+            log.debug("Evicted trust agent client for {}: {}", key.url, cause);
+            return;
+        }
+        log.debug("Closing trust agent client for {}: {}", key.url, cause);
+        try {
+            close.run();
+        } catch (RuntimeException e) {
+            log.warn("Cannot close trust agent client for {}: {}", key.url, e.getMessage());
+        }
+    }
+
+    /**
+     * @param certificateCache certificate cache given to every client created from now on, or null for none
+     */
+    public void setCertificateCache(TrustAgentCertificateCache certificateCache) {
+        this.certificateCache = certificateCache;
+    }
+
+    public TrustAgentCertificateCache getCertificateCache() {
+        return certificateCache;
+    }
+
+    public TrustAgentClient getClient(ConnectionString host) throws Exception {
+        return getClient(tlsConnectionFor(host));
+    }
+
+    public TrustAgentClient getClient(final TlsConnection tlsConnection) throws Exception {
+        return clients.get(new ClientKey(tlsConnection), key -> {
+            TrustAgentClient client = new TrustAgentClient(properties, tlsConnection);
+            client.setCertificateCache(certificateCache);
+            return client;
+        });
+    }
+
+    public AsyncTrustAgentClient getAsyncClient(ConnectionString host) throws Exception {
+        return getAsyncClient(tlsConnectionFor(host));
+    }
+
+    public AsyncTrustAgentClient getAsyncClient(final TlsConnection tlsConnection) throws Exception {
+        return asyncClients.get(new ClientKey(tlsConnection), key -> {
+            AsyncTrustAgentClient client = new AsyncTrustAgentClient(properties, tlsConnection);
+            client.setCertificateCache(certificateCache);
+            return client;
+        });
+    }
+
+    /**
+     * Drops and closes the cached clients for a host, for example after its
+     * TLS certificate or credentials changed. Callers must not use a client
+     * of that host obtained earlier.
+     */
+    public void invalidate(ConnectionString host) {
+        invalidate(tlsConnectionFor(host));
+    }
+
+    public void invalidate(TlsConnection tlsConnection) {
+        ClientKey key = new ClientKey(tlsConnection);
+        clients.invalidate(key);
+        asyncClients.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        clients.invalidateAll();
+        asyncClients.invalidateAll();
+    }
+
+    /**
+     * Closes all cached clients. The factory remains usable and creates new
+     * clients on the next lookup.
+     */
+    @Override
+    public void close() {
+        invalidateAll();
+    }
+
+    /**
+     * Evicts idle clients now instead of on the next lookup.
+     */
+    public void cleanUp() {
+        clients.cleanUp();
+        asyncClients.cleanUp();
+    }
+
+    public int size() {
+        return clients.size() + asyncClients.size();
+    }
+
+    public long getHitCount() {
+        return clients.getHitCount() + asyncClients.getHitCount();
+    }
+
+    public long getMissCount() {
+        return clients.getMissCount() + asyncClients.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return clients.getEvictionCount() + asyncClients.getEvictionCount();
+    }
+
+    /**
+     * @return fraction of lookups served by an existing client, in the range 0-1
+     */
+    public double getHitRate() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private TlsConnection tlsConnectionFor(ConnectionString host) {
+        if (tlsPolicy == null) {
+            throw new IllegalStateException("TLS policy is required to create clients from a connection string");
+        }
+        return new TlsConnection(host.getURL(), tlsPolicy);
+    }
+
+    /**
+     * Two connections share a client when they have the same URL and the same
+     * TLS policy instance.
+     */
+    private static final class ClientKey {
+        private final String url;
+        private final TlsPolicy tlsPolicy;
+
+        ClientKey(TlsConnection tlsConnection) {
+            this.url = tlsConnection.getURL().toExternalForm();
+            this.tlsPolicy = tlsConnection.getTlsPolicy();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ClientKey)) {
+                return false;
+            }
+            ClientKey other = (ClientKey) obj;
+            return url.equals(other.url) && tlsPolicy == other.tlsPolicy;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, System.identityHashCode(tlsPolicy));
+        }
+    }
+}
@@ -7,10 +7,12 @@ package com.intel.mtwilson.core.common.utils;
 import com.intel.dcsg.cpg.tls.policy.TlsConnection;
 import com.intel.mtwilson.jaxrs2.UserCredential;
 import com.intel.mtwilson.jaxrs2.client.AASClient;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intel.mtwilson.shiro.authc.model.JwtBody;
+import java.io.IOException;
+import java.util.Base64;
 import java.util.Date;
-import org.apache.shiro.codec.Base64;
 import java.util.Properties;
 
 /**
@@ -18,6 +20,7 @@ import java.util.Properties;
  */
 public class AASTokenFetcher {
     private final static org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AASTokenFetcher.class);
+    private final static ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
     public String getAASToken(String username, String password, TlsConnection tlsConnection) throws Exception {
         Properties clientConfiguration = new Properties();
@@ -35,12 +38,8 @@ public class AASTokenFetcher {
                 aasToken = getAASToken(userName, password, tlsConnection);
             }
             // check if token is not expired
-            ObjectMapper mapper = new ObjectMapper();
-            String[] splitToken = aasToken.split("\\.");
-            JwtBody jwtBody = mapper.readValue(new String( Base64.decode(splitToken[1])).replaceAll("\0+", "\"}").
-                replaceAll("\"{2,}", "\"").getBytes(), JwtBody.class);
             Date currentDate = new Date(System.currentTimeMillis());
-            Date tokenExpDate = new Date(Long.parseLong(jwtBody.getExp()) * 1000);
+            Date tokenExpDate = new Date(getExpirationTime(aasToken));
             if (currentDate.after(tokenExpDate)) {
                 log.debug("Current time is {}, token expired at {} fetching new token from AAS",currentDate, tokenExpDate);
                 aasToken = getAASToken(userName, password, tlsConnection);
@@ -51,4 +50,34 @@ public class AASTokenFetcher {
         }
         return null;
     }
+
+    /**
+     * The JWT body is base64url encoded without padding, so it is decoded with
+     * the URL decoder rather than patching the output of a standard decoder.
+     *
+     * @param aasToken a JWT
+     * @return the exp claim of the token in milliseconds since the epoch
+     * @throws IOException if the token is not a JWT or has no exp claim
+     */
+    public static long getExpirationTime(String aasToken) throws IOException {
+        int start = aasToken.indexOf('.');
+        int end = aasToken.indexOf('.', start + 1);
+        if (start < 0 || end < 0) {
+            throw new IOException("Token is not a JWT");
+        }
+        JwtBody jwtBody;
+        try {
+            jwtBody = mapper.readValue(Base64.getUrlDecoder().decode(aasToken.substring(start + 1, end)), JwtBody.class);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Token body is not base64url encoded", e);
+        }
+        if (jwtBody.getExp() == null) {
+            throw new IOException("Token does not have an expiration time");
+        }
+        try {
+            return Long.parseLong(jwtBody.getExp()) * 1000;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid token expiration time: " + jwtBody.getExp(), e);
+        }
+    }
 }
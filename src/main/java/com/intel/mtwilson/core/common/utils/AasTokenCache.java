@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.utils;
+
+import com.intel.dcsg.cpg.tls.policy.TlsConnection;
+import java.io.Closeable;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the AAS token of one user and refreshes it before it expires.
+ *
+ * The expiration time of a token is read from its exp claim once, when the
+ * token is fetched. Reading a valid token only reads a volatile field. After
+ * each successful fetch a refresh is scheduled ahead of the expiration time,
+ * but not before half of the life of the token. A caller that finds the
+ * token about to expire gets the current token and, if no refresh is
+ * pending, starts one in the background. Only callers that find no token, or
+ * an expired one, wait for AAS, and concurrent callers share a single
+ * request instead of each fetching their own token. If a background refresh
+ * fails it is retried, and the current token keeps being served while it is
+ * valid.
+ *
+ * Instances are thread-safe and meant to be shared by all the clients of a
+ * user; close the cache to stop the background refresh.
+ */
+public class AasTokenCache implements Closeable {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AasTokenCache.class);
+    /** tokens are refreshed this long before they expire */
+    public static final long DEFAULT_REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    /** delay before retrying a failed background refresh */
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Callable<String> tokenSource;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownsScheduler;
+    private final AtomicReference<CompletableFuture<Token>> inFlight = new AtomicReference<>();
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
+    private volatile Token token;
+    private volatile ScheduledFuture<?> scheduledRefresh;
+    private volatile boolean closed;
+    private long refreshAheadMillis = DEFAULT_REFRESH_AHEAD_MILLIS;
+    private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+
+    private final LatencyHistogram refreshLatency = new LatencyHistogram();
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder waitCount = new LongAdder();
+    private volatile String lastFailure;
+
+    public AasTokenCache(String username, String password, TlsConnection tlsConnection) {
+        this(() -> new AASTokenFetcher().getAASToken(username, password, tlsConnection));
+    }
+
+    /**
+     * @param tokenSource fetches a new token from AAS
+     */
+    public AasTokenCache(Callable<String> tokenSource) {
+        this(tokenSource, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aas-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * @param tokenSource fetches a new token from AAS
+     * @param scheduler runs the background refreshes; it is not shut down by {@link #close()}
+     */
+    public AasTokenCache(Callable<String> tokenSource, ScheduledExecutorService scheduler) {
+        this(tokenSource, scheduler, false);
+    }
+
+    private AasTokenCache(Callable<String> tokenSource, ScheduledExecutorService scheduler, boolean ownsScheduler) {
+        this.tokenSource = tokenSource;
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+    }
+
+    public void setRefreshAhead(long duration, TimeUnit unit) {
+        this.refreshAheadMillis = unit.toMillis(duration);
+    }
+
+    public void setRetryDelay(long duration, TimeUnit unit) {
+        this.retryDelayMillis = unit.toMillis(duration);
+    }
+
+    /**
+     * @return a token that has not expired, fetching one if there is none
+     * @throws Exception if a token cannot be fetched from AAS
+     */
+    public String getToken() throws Exception {
+        Token current = token;
+        long now = System.currentTimeMillis();
+        if (current != null && now < current.expiresAt) {
+            if (now >= current.refreshAt) {
+                refreshInBackground();
+            }
+            return current.value;
+        }
+        waitCount.increment();
+        try {
+            return refresh().get().value;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the cached token, null if there is none or it expired; never calls AAS
+     */
+    public String getCachedToken() {
+        Token current = token;
+        return current == null || System.currentTimeMillis() >= current.expiresAt ? null : current.value;
+    }
+
+    /**
+     * Drops the cached token, for example after AAS rejected it. The next
+     * call to {@link #getToken()} fetches a new one.
+     */
+    public void invalidate() {
+        token = null;
+    }
+
+    /**
+     * Starts a refresh, or joins the one in progress.
+     */
+    private CompletableFuture<Token> refresh() {
+        CompletableFuture<Token> future = inFlight.get();
+        if (future != null) {
+            return future;
+        }
+        CompletableFuture<Token> created = new CompletableFuture<>();
+        if (!inFlight.compareAndSet(null, created)) {
+            CompletableFuture<Token> other = inFlight.get();
+            return other != null ? other : refresh();
+        }
+        long start = System.nanoTime();
+        try {
+            String value = tokenSource.call();
+            long now = System.currentTimeMillis();
+            long expiresAt = AASTokenFetcher.getExpirationTime(value);
+            Token fetched = new Token(value, expiresAt, expiresAt - Math.min(refreshAheadMillis, (expiresAt - now) / 2));
+            token = fetched;
+            refreshCount.increment();
+            if (fetched.refreshAt > now) {
+                scheduleRefresh(fetched.refreshAt - now);
+            } else {
+                // do not refresh in a loop if AAS issues tokens that are already expired, for example because of clock skew
+                log.warn("AAS token expired at {}, current time is {}", new Date(expiresAt), new Date(now));
+                scheduleRefresh(retryDelayMillis);
+            }
+            log.debug("Fetched AAS token, expires at {}", new Date(expiresAt));
+            created.complete(fetched);
+        } catch (Exception e) {
+            failureCount.increment();
+            lastFailure = e.getClass().getSimpleName() + ": " + e.getMessage();
+            log.error("Error getting AAS token : {}", e.getMessage());
+            created.completeExceptionally(e);
+        } finally {
+            refreshLatency.recordNanos(System.nanoTime() - start);
+            inFlight.set(null);
+        }
+        return created;
+    }
+
+    /**
+     * Starts a refresh on the scheduler, unless one is already queued or a
+     * scheduled refresh or retry is still pending.
+     */
+    private void refreshInBackground() {
+        ScheduledFuture<?> pending = scheduledRefresh;
+        if (closed || (pending != null && !pending.isDone()) || !refreshQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.execute(() -> {
+                try {
+                    backgroundRefresh();
+                } finally {
+                    refreshQueued.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshQueued.set(false);
+            log.debug("Cannot start background refresh of AAS token: {}", e.getMessage());
+        }
+    }
+
+    private void scheduleRefresh(long delayMillis) {
+        if (closed) {
+            return;
+        }
+        ScheduledFuture<?> previous = scheduledRefresh;
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        try {
+            scheduledRefresh = scheduler.schedule(this::backgroundRefresh, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the scheduler was shut down, for example by close(); the token that was fetched is still good
+            log.debug("Cannot schedule refresh of AAS token: {}", e.getMessage());
+        }
+    }
+
+    private void backgroundRefresh() {
+        try {
+            refresh().join();
+        } catch (CompletionException e) {
+            log.debug("Background refresh of AAS token failed, retrying in {} ms", retryDelayMillis);
+            scheduleRefresh(retryDelayMillis);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        ScheduledFuture<?> previous = scheduledRefresh;
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        if (ownsScheduler) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * @return latency of the requests to AAS
+     */
+    public LatencyHistogram getRefreshLatency() {
+        return refreshLatency;
+    }
+
+    /**
+     * @return number of tokens fetched from AAS
+     */
+    public long getRefreshCount() {
+        return refreshCount.sum();
+    }
+
+    /**
+     * @return number of failed requests to AAS
+     */
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    /**
+     * @return number of calls to getToken that had to wait for AAS
+     */
+    public long getWaitCount() {
+        return waitCount.sum();
+    }
+
+    /**
+     * @return the error of the last failed request to AAS, or null
+     */
+    public String getLastFailure() {
+        return lastFailure;
+    }
+
+    private static final class Token {
+        private final String value;
+        private final long expiresAt;
+        private final long refreshAt;
+
+        Token(String value, long expiresAt, long refreshAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
+    }
+}
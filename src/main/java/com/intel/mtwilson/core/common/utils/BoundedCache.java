@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small thread-safe LRU cache with an optional time-to-live and hit, miss
+ * and eviction counters. Entries are evicted when the cache exceeds its
+ * maximum size (least recently used first) or when they expire; expired
+ * entries are removed lazily on access and by {@link #cleanUp()}.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class BoundedCache<K, V> {
+
+    public enum Expiry {
+        /** entries expire a fixed time after they were stored */
+        AFTER_WRITE,
+        /** entries expire after they have not been read or written for the given time */
+        AFTER_ACCESS
+    }
+
+    public enum RemovalCause { SIZE, EXPIRED, INVALIDATED, REPLACED }
+
+    /**
+     * Notified after an entry has been removed from the cache, outside of the cache lock.
+     */
+    public interface RemovalListener<K, V> {
+        void onRemoval(K key, V value, RemovalCause cause);
+    }
+
+    /**
+     * Creates a value for a key that is not in the cache.
+     */
+    public interface Loader<K, V> {
+        V load(K key) throws Exception;
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Expiry expiry;
+    private final LinkedHashMap<K, Entry<V>> map;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private RemovalListener<K, V> removalListener;
+
+    /**
+     * @param maxSize maximum number of entries
+     * @param ttl time to live, or 0 for entries that only leave the cache when it is full
+     * @param unit unit of ttl
+     * @param expiry whether the time to live counts from the last write or the last access
+     */
+    public BoundedCache(int maxSize, long ttl, TimeUnit unit, Expiry expiry) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.expiry = expiry;
+        this.map = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public BoundedCache(int maxSize) {
+        this(maxSize, 0, TimeUnit.MILLISECONDS, Expiry.AFTER_WRITE);
+    }
+
+    public void setRemovalListener(RemovalListener<K, V> removalListener) {
+        this.removalListener = removalListener;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the cached value, or null if absent or expired
+     */
+    public V get(K key) {
+        List<Removal<K, V>> removals = null;
+        V value = null;
+        synchronized (map) {
+            Entry<V> entry = map.get(key);
+            if (entry != null) {
+                long now = System.nanoTime();
+                if (isExpired(entry, now)) {
+                    map.remove(key);
+                    evictions.increment();
+                    removals = new ArrayList<>(1);
+                    removals.add(new Removal<>(key, entry.value, RemovalCause.EXPIRED));
+                } else {
+                    if (expiry == Expiry.AFTER_ACCESS) {
+                        entry.timestamp = now;
+                    }
+                    value = entry.value;
+                }
+            }
+        }
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        notifyRemovals(removals);
+        return value;
+    }
+
+    public void put(K key, V value) {
+        List<Removal<K, V>> removals = new ArrayList<>(1);
+        synchronized (map) {
+            Entry<V> previous = map.put(key, new Entry<>(value, System.nanoTime()));
+            if (previous != null && previous.value != value) {
+                removals.add(new Removal<>(key, previous.value, RemovalCause.REPLACED));
+            }
+            trim(removals);
+        }
+        notifyRemovals(removals);
+    }
+
+    /**
+     * Returns the cached value or loads, caches and returns a new one. The
+     * loader runs outside the cache lock, so two threads that miss the same
+     * key at the same time may both load it; the first value stored wins
+     * and the other one is reported to the removal listener as REPLACED.
+     */
+    public V get(K key, Loader<K, V> loader) throws Exception {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        V loaded = loader.load(key);
+        if (loaded == null) {
+            return null;
+        }
+        List<Removal<K, V>> removals = new ArrayList<>(1);
+        synchronized (map) {
+            Entry<V> existing = map.get(key);
+            if (existing != null && !isExpired(existing, System.nanoTime())) {
+                value = existing.value;
+                removals.add(new Removal<>(key, loaded, RemovalCause.REPLACED));
+            } else {
+                if (existing != null) {
+                    evictions.increment();
+                    removals.add(new Removal<>(key, existing.value, RemovalCause.EXPIRED));
+                }
+                map.put(key, new Entry<>(loaded, System.nanoTime()));
+                value = loaded;
+                trim(removals);
+            }
+        }
+        notifyRemovals(removals);
+        return value;
+    }
+
+    public void invalidate(K key) {
+        Entry<V> removed;
+        synchronized (map) {
+            removed = map.remove(key);
+        }
+        if (removed != null && removalListener != null) {
+            removalListener.onRemoval(key, removed.value, RemovalCause.INVALIDATED);
+        }
+    }
+
+    public void invalidateAll() {
+        List<Removal<K, V>> removals = new ArrayList<>();
+        synchronized (map) {
+            for (Map.Entry<K, Entry<V>> entry : map.entrySet()) {
+                removals.add(new Removal<>(entry.getKey(), entry.getValue().value, RemovalCause.INVALIDATED));
+            }
+            map.clear();
+        }
+        notifyRemovals(removals);
+    }
+
+    /**
+     * Removes all expired entries now instead of waiting for them to be accessed.
+     */
+    public void cleanUp() {
+        if (ttlNanos <= 0) {
+            return;
+        }
+        List<Removal<K, V>> removals = new ArrayList<>();
+        synchronized (map) {
+            long now = System.nanoTime();
+            Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<K, Entry<V>> entry = it.next();
+                if (isExpired(entry.getValue(), now)) {
+                    it.remove();
+                    evictions.increment();
+                    removals.add(new Removal<>(entry.getKey(), entry.getValue().value, RemovalCause.EXPIRED));
+                }
+            }
+        }
+        notifyRemovals(removals);
+    }
+
+    public int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return fraction of lookups that were hits, in the range 0-1
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return ttlNanos > 0 && now - entry.timestamp >= ttlNanos;
+    }
+
+    private void trim(List<Removal<K, V>> removals) {
+        Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator();
+        while (map.size() > maxSize && it.hasNext()) {
+            Map.Entry<K, Entry<V>> eldest = it.next();
+            it.remove();
+            evictions.increment();
+            removals.add(new Removal<>(eldest.getKey(), eldest.getValue().value, RemovalCause.SIZE));
+        }
+    }
+
+    private void notifyRemovals(List<Removal<K, V>> removals) {
+        if (removals == null || removals.isEmpty() || removalListener == null) {
+            return;
+        }
+        for (Removal<K, V> removal : removals) {
+            removalListener.onRemoval(removal.key, removal.value, removal.cause);
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private long timestamp;
+
+        Entry(V value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static class Removal<K, V> {
+        private final K key;
+        private final V value;
+        private final RemovalCause cause;
+
+        Removal(K key, V value, RemovalCause cause) {
+            this.key = key;
+            this.value = value;
+            this.cause = cause;
+        }
+    }
+}
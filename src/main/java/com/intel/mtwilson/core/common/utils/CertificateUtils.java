@@ -16,15 +16,85 @@ import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
 import javax.security.auth.x500.X500Principal;
 import java.io.IOException;
 import java.security.*;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
 
 public class CertificateUtils {
 
+    /**
+     * Signs the request with SHA384withRSA for RSA keys and SHA384withECDSA
+     * for EC keys.
+     */
     public static Pem getCSR(KeyPair signingKey, String commonName) throws OperatorCreationException, IOException {
         PKCS10CertificationRequestBuilder csrBuilder = new JcaPKCS10CertificationRequestBuilder(new X500Principal(commonName), signingKey.getPublic());
-        ContentSigner signGen = new JcaContentSignerBuilder("SHA384withRSA").build(signingKey.getPrivate());
+        ContentSigner signGen = new JcaContentSignerBuilder(getSignatureAlgorithm(signingKey.getPrivate())).build(signingKey.getPrivate());
         PKCS10CertificationRequest certificateRequest = csrBuilder.build(signGen);
         return new Pem("CERTIFICATE REQUEST", certificateRequest.getEncoded());
     }
 
-}
\ No newline at end of file
+    private static String getSignatureAlgorithm(PrivateKey key) {
+        if ("EC".equals(key.getAlgorithm()) || "ECDSA".equals(key.getAlgorithm())) {
+            return "SHA384withECDSA";
+        }
+        return "SHA384withRSA";
+    }
+
+    /**
+     * Creates one key pair and certificate request per common name, taking
+     * the key pairs from the pool and signing the requests in parallel.
+     *
+     * @param keyPairPool for example KeyPairPool.rsa(3072, n) or KeyPairPool.ecP384(n)
+     * @param commonNames the subject of each request
+     * @return the requests in the order of the common names
+     */
+    public static List<CertificateRequest> getCSRs(KeyPairPool keyPairPool, List<String> commonNames) throws GeneralSecurityException, OperatorCreationException, IOException {
+        try {
+            return commonNames.parallelStream().map(commonName -> {
+                try {
+                    KeyPair keyPair = keyPairPool.take();
+                    return new CertificateRequest(commonName, keyPair, getCSR(keyPair, commonName));
+                } catch (GeneralSecurityException | OperatorCreationException | IOException e) {
+                    throw new CompletionException(e);
+                }
+            }).collect(Collectors.toList());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) e.getCause();
+            }
+            if (e.getCause() instanceof OperatorCreationException) {
+                throw (OperatorCreationException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public static class CertificateRequest {
+        private final String commonName;
+        private final KeyPair keyPair;
+        private final Pem csr;
+
+        CertificateRequest(String commonName, KeyPair keyPair, Pem csr) {
+            this.commonName = commonName;
+            this.keyPair = keyPair;
+            this.csr = csr;
+        }
+
+        public String getCommonName() {
+            return commonName;
+        }
+
+        public KeyPair getKeyPair() {
+            return keyPair;
+        }
+
+        public Pem getCsr() {
+            return csr;
+        }
+    }
+
+}
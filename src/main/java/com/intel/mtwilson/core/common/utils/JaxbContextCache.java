@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.utils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Shared JAXB contexts with per-thread marshallers and unmarshallers.
+ *
+ * A JAXBContext is expensive to create but thread-safe, so one context is
+ * created per class and kept for the life of the class loader. Marshallers
+ * and unmarshallers are cheap but not thread-safe, so each thread keeps one
+ * of each per class. Callers must not change the properties of the
+ * marshallers they get from this class, since they are reused.
+ *
+ * Documents are read through a StAX reader with DTDs and external entities
+ * disabled.
+ */
+public final class JaxbContextCache {
+    private static final Map<Class<?>, JAXBContext> CONTEXTS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Map<Class<?>, Marshaller>> MARSHALLERS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<Class<?>, Unmarshaller>> UNMARSHALLERS = ThreadLocal.withInitial(HashMap::new);
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    private JaxbContextCache() {
+    }
+
+    public static JAXBContext getContext(Class<?> clazz) throws JAXBException {
+        JAXBContext context = CONTEXTS.get(clazz);
+        if (context == null) {
+            // creating the context twice in a race is harmless, the first one stored is kept
+            context = JAXBContext.newInstance(clazz);
+            JAXBContext existing = CONTEXTS.putIfAbsent(clazz, context);
+            if (existing != null) {
+                context = existing;
+            }
+        }
+        return context;
+    }
+
+    /**
+     * @return the marshaller for the class owned by the current thread
+     */
+    public static Marshaller getMarshaller(Class<?> clazz) throws JAXBException {
+        Map<Class<?>, Marshaller> marshallers = MARSHALLERS.get();
+        Marshaller marshaller = marshallers.get(clazz);
+        if (marshaller == null) {
+            marshaller = getContext(clazz).createMarshaller();
+            marshallers.put(clazz, marshaller);
+        }
+        return marshaller;
+    }
+
+    /**
+     * @return the unmarshaller for the class owned by the current thread
+     */
+    public static Unmarshaller getUnmarshaller(Class<?> clazz) throws JAXBException {
+        Map<Class<?>, Unmarshaller> unmarshallers = UNMARSHALLERS.get();
+        Unmarshaller unmarshaller = unmarshallers.get(clazz);
+        if (unmarshaller == null) {
+            unmarshaller = getContext(clazz).createUnmarshaller();
+            unmarshallers.put(clazz, unmarshaller);
+        }
+        return unmarshaller;
+    }
+
+    public static <T> T read(Reader xml, Class<T> clazz) throws JAXBException, XMLStreamException {
+        return read(XML_INPUT_FACTORY.createXMLStreamReader(xml), clazz);
+    }
+
+    /**
+     * Reads a document from the stream without closing it.
+     */
+    public static <T> T read(InputStream xml, Class<T> clazz) throws JAXBException, XMLStreamException {
+        return read(XML_INPUT_FACTORY.createXMLStreamReader(xml), clazz);
+    }
+
+    private static <T> T read(XMLStreamReader reader, Class<T> clazz) throws JAXBException, XMLStreamException {
+        try {
+            return getUnmarshaller(clazz).unmarshal(reader, clazz).getValue();
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static void write(Object object, Writer xml) throws JAXBException {
+        getMarshaller(object.getClass()).marshal(object, xml);
+    }
+
+    /**
+     * Writes the document as UTF-8 to the stream without closing it.
+     */
+    public static void write(Object object, OutputStream xml) throws JAXBException {
+        getMarshaller(object.getClass()).marshal(object, xml);
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
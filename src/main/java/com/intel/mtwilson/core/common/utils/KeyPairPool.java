@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.utils;
+
+import java.io.Closeable;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a number of pre-generated key pairs ready so callers do not wait for
+ * key generation, which takes hundreds of milliseconds for RSA-3072.
+ *
+ * Key pairs are generated by background daemon threads until the pool holds
+ * its capacity, and every key pair taken from the pool is replaced. When the
+ * pool is empty the key pair is generated on the calling thread. Each key
+ * pair is handed out only once.
+ *
+ * Instances are thread-safe; close the pool to stop the background threads.
+ */
+public class KeyPairPool implements Closeable {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(KeyPairPool.class);
+
+    private final String algorithm;
+    private final AlgorithmParameterSpec parameters;
+    private final int capacity;
+    private final BlockingQueue<KeyPair> keyPairs;
+    private final ExecutorService generators;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+
+    /**
+     * @param algorithm key pair algorithm, for example RSA or EC
+     * @param parameters key generation parameters
+     * @param capacity number of key pairs to keep ready
+     * @param threads number of background threads generating key pairs
+     * @throws NoSuchAlgorithmException if the algorithm or parameters are not supported
+     */
+    public KeyPairPool(String algorithm, AlgorithmParameterSpec parameters, int capacity, int threads) throws NoSuchAlgorithmException {
+        if (capacity < 1 || threads < 1) {
+            throw new IllegalArgumentException("Capacity and threads must be positive");
+        }
+        this.algorithm = algorithm;
+        this.parameters = parameters;
+        this.capacity = capacity;
+        this.keyPairs = new LinkedBlockingQueue<>(capacity);
+        try {
+            newGenerator(); // fail now rather than in the background
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new NoSuchAlgorithmException("Unsupported " + algorithm + " parameters", e);
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.generators = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "keypair-pool-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        refill();
+    }
+
+    /**
+     * @return a pool of RSA key pairs with the given modulus size, for example 3072
+     */
+    public static KeyPairPool rsa(int keySize, int capacity) throws NoSuchAlgorithmException {
+        return new KeyPairPool("RSA", new RSAKeyGenParameterSpec(keySize, RSAKeyGenParameterSpec.F4), capacity, defaultThreads(capacity));
+    }
+
+    /**
+     * @return a pool of EC key pairs on the NIST P-384 curve
+     */
+    public static KeyPairPool ecP384(int capacity) throws NoSuchAlgorithmException {
+        return new KeyPairPool("EC", new ECGenParameterSpec("secp384r1"), capacity, defaultThreads(capacity));
+    }
+
+    private static int defaultThreads(int capacity) {
+        return Math.max(1, Math.min(capacity, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * @return a key pair from the pool, or a new one if the pool is empty
+     * @throws GeneralSecurityException if a key pair cannot be generated
+     */
+    public KeyPair take() throws GeneralSecurityException {
+        KeyPair keyPair = keyPairs.poll();
+        refill();
+        if (keyPair != null) {
+            hitCount.increment();
+            return keyPair;
+        }
+        missCount.increment();
+        log.debug("Key pair pool is empty, generating {} key pair on the calling thread", algorithm);
+        return newGenerator().generateKeyPair();
+    }
+
+    private KeyPairGenerator newGenerator() throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        generator.initialize(parameters);
+        return generator;
+    }
+
+    /**
+     * Starts background generation of the key pairs missing from the pool.
+     */
+    private void refill() {
+        while (true) {
+            int scheduled = pending.get();
+            if (keyPairs.size() + scheduled >= capacity) {
+                return;
+            }
+            if (!pending.compareAndSet(scheduled, scheduled + 1)) {
+                continue;
+            }
+            try {
+                generators.execute(this::generate);
+            } catch (RejectedExecutionException e) {
+                pending.decrementAndGet();
+                return; // closed
+            }
+        }
+    }
+
+    private void generate() {
+        try {
+            KeyPair keyPair = newGenerator().generateKeyPair();
+            if (!keyPairs.offer(keyPair)) {
+                log.debug("Key pair pool is full, discarding key pair");
+            }
+        } catch (GeneralSecurityException | RuntimeException e) {
+            failureCount.increment();
+            log.error("Cannot generate {} key pair: {}", algorithm, e.getMessage());
+            return; // do not retry in a loop, the next take() refills
+        } finally {
+            pending.decrementAndGet();
+        }
+        refill();
+    }
+
+    @Override
+    public void close() {
+        generators.shutdownNow();
+        keyPairs.clear();
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of key pairs ready in the pool
+     */
+    public int size() {
+        return keyPairs.size();
+    }
+
+    /**
+     * @return number of key pairs served from the pool
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return number of key pairs generated on the calling thread because the pool was empty
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return number of key pairs the background threads failed to generate
+     */
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+}
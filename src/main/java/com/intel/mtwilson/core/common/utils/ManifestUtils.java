@@ -4,14 +4,14 @@
  */
 package com.intel.mtwilson.core.common.utils;
 
-import com.intel.dcsg.cpg.xml.JAXB;
 import com.intel.wml.manifest.xml.Manifest;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.io.StringWriter;
 
 /**
@@ -20,16 +20,27 @@ import java.io.StringWriter;
  */
 public class ManifestUtils {
     public static Manifest parseManifestXML(String manifest) throws JAXBException, IOException, XMLStreamException {
-        JAXB manifestJaxb = new JAXB();
-        return manifestJaxb.read(manifest, Manifest.class);
+        return JaxbContextCache.read(new StringReader(manifest), Manifest.class);
+    }
+
+    /**
+     * Reads a manifest document from the stream without closing it.
+     */
+    public static Manifest parseManifestXML(InputStream manifest) throws JAXBException, XMLStreamException {
+        return JaxbContextCache.read(manifest, Manifest.class);
     }
 
     //Convert manifest xml to string
-    public static String getManifestString(Manifest manifest) throws JAXBException{
+    public static String getManifestString(Manifest manifest) throws JAXBException {
         StringWriter tempManifest = new StringWriter();
-        JAXBContext jaxbContext = JAXBContext.newInstance(Manifest.class);
-        Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-        jaxbMarshaller.marshal(manifest, tempManifest);
+        JaxbContextCache.write(manifest, tempManifest);
         return tempManifest.toString();
     }
+
+    /**
+     * Writes the manifest as UTF-8 XML to the stream without closing it.
+     */
+    public static void writeManifestXML(Manifest manifest, OutputStream out) throws JAXBException {
+        JaxbContextCache.write(manifest, out);
+    }
 }
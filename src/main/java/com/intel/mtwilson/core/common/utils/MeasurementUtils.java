@@ -4,14 +4,14 @@
  */
 package com.intel.mtwilson.core.common.utils;
 
-import com.intel.dcsg.cpg.xml.JAXB;
 import com.intel.wml.measurement.xml.Measurement;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.io.StringWriter;
 
 /**
@@ -20,16 +20,27 @@ import java.io.StringWriter;
  */
 public class MeasurementUtils {
     public static Measurement parseMeasurementXML(String measurement) throws JAXBException, IOException, XMLStreamException {
-        JAXB measurementJaxb = new JAXB();
-        return measurementJaxb.read(measurement, Measurement.class);
+        return JaxbContextCache.read(new StringReader(measurement), Measurement.class);
+    }
+
+    /**
+     * Reads a measurement document from the stream without closing it.
+     */
+    public static Measurement parseMeasurementXML(InputStream measurement) throws JAXBException, XMLStreamException {
+        return JaxbContextCache.read(measurement, Measurement.class);
     }
 
     //Convert measurement xml to string
     public static String getMeasurementString(Measurement measurement) throws JAXBException {
         StringWriter tempMeasurement = new StringWriter();
-        JAXBContext jaxbContext = JAXBContext.newInstance(Measurement.class);
-        Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-        jaxbMarshaller.marshal(measurement, tempMeasurement);
+        JaxbContextCache.write(measurement, tempMeasurement);
         return tempMeasurement.toString();
     }
+
+    /**
+     * Writes the measurement as UTF-8 XML to the stream without closing it.
+     */
+    public static void writeMeasurementXML(Measurement measurement, OutputStream out) throws JAXBException {
+        JaxbContextCache.write(measurement, out);
+    }
 }
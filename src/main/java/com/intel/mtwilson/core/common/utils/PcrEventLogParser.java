@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.utils;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.Measurement;
+import com.intel.mtwilson.core.common.model.PcrBankType;
+import com.intel.mtwilson.core.common.model.PcrEventLog;
+import com.intel.mtwilson.core.common.model.PcrEventLogFactory;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import com.intel.mtwilson.core.common.trustagent.model.TpmQuoteResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming parser for the event log reported by the trust agent in
+ * {@link TpmQuoteResponse#eventLog}. The event log is base64-encoded XML in
+ * which every extended module is described by a {@code <module>} element:
+ * <pre>
+ * &lt;module&gt;
+ *   &lt;pcrBank&gt;SHA256&lt;/pcrBank&gt;
+ *   &lt;pcrNumber&gt;17&lt;/pcrNumber&gt;
+ *   &lt;name&gt;HASH_START&lt;/name&gt;
+ *   &lt;value&gt;...&lt;/value&gt;
+ * &lt;/module&gt;
+ * </pre>
+ *
+ * The base64 text is decoded on the fly and fed to a StAX pull parser, so
+ * neither the decoded bytes nor the XML document are ever held in memory as
+ * a whole. Each module becomes a measurement that is appended to the event
+ * log of its PCR and bank in a PcrManifest. Child elements other than
+ * pcrBank, pcrNumber, name and value are kept in the measurement info map.
+ *
+ * For very large event logs, {@link #parse(java.io.InputStream, Listener)}
+ * hands every measurement to a listener instead of collecting them, so memory
+ * use does not grow with the size of the log. {@link #setMaxMeasurements(int)}
+ * puts an upper bound on the number of measurements accepted in either mode.
+ *
+ * Modules for banks without a {@link PcrBankType} are skipped because the
+ * PcrManifest has no event logs for them. Instances are thread-safe once
+ * configured.
+ */
+public class PcrEventLogParser {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PcrEventLogParser.class);
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    /**
+     * Receives each measurement as soon as its module element has been parsed.
+     */
+    public interface Listener {
+        void onMeasurement(DigestAlgorithm bank, PcrIndex pcrIndex, Measurement measurement);
+    }
+
+    private int maxMeasurements = Integer.MAX_VALUE;
+
+    /**
+     * @param maxMeasurements number of measurements after which parsing fails
+     * with an IOException, to protect against hostile or corrupt event logs
+     */
+    public void setMaxMeasurements(int maxMeasurements) {
+        if (maxMeasurements < 1) {
+            throw new IllegalArgumentException("Maximum number of measurements must be positive");
+        }
+        this.maxMeasurements = maxMeasurements;
+    }
+
+    public int getMaxMeasurements() {
+        return maxMeasurements;
+    }
+
+    /**
+     * Appends the event log of the quote response to the PcrManifest. Does
+     * nothing if the response has no event log.
+     */
+    public void parse(TpmQuoteResponse tpmQuoteResponse, PcrManifest pcrManifest) throws IOException {
+        if (tpmQuoteResponse.eventLog == null || tpmQuoteResponse.eventLog.isEmpty()) {
+            return;
+        }
+        parseBase64(tpmQuoteResponse.eventLog, pcrManifest);
+    }
+
+    /**
+     * Appends the measurements in a base64-encoded event log to the PcrManifest.
+     */
+    public void parseBase64(CharSequence base64EventLog, PcrManifest pcrManifest) throws IOException {
+        parseBase64(base64EventLog, new PcrManifestAppender(pcrManifest));
+    }
+
+    public void parseBase64(CharSequence base64EventLog, Listener listener) throws IOException {
+        try (InputStream in = Base64.getMimeDecoder().wrap(new AsciiInputStream(base64EventLog))) {
+            parse(in, listener);
+        }
+    }
+
+    /**
+     * Appends the measurements in an already decoded event log document to the PcrManifest.
+     */
+    public void parse(InputStream eventLogXml, PcrManifest pcrManifest) throws IOException {
+        parse(eventLogXml, new PcrManifestAppender(pcrManifest));
+    }
+
+    /**
+     * Parses an already decoded event log document and hands each measurement
+     * to the listener without retaining it. The stream is not closed.
+     */
+    public void parse(InputStream eventLogXml, Listener listener) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(eventLogXml);
+            int count = 0;
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "module".equals(reader.getLocalName())) {
+                    if (readModule(reader, listener, count)) {
+                        count++;
+                    }
+                }
+            }
+            log.debug("Parsed {} event log measurements", count);
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot parse event log", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    log.debug("Cannot close event log reader", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one module element, leaving the reader on its end tag.
+     *
+     * @param count number of measurements already passed to the listener
+     * @return true if a measurement was passed to the listener
+     * @throws IOException if the module is not valid, or the listener
+     * already received the maximum number of measurements
+     */
+    private boolean readModule(XMLStreamReader reader, Listener listener, int count) throws XMLStreamException, IOException {
+        String bank = null;
+        String pcrNumber = null;
+        String name = null;
+        String value = null;
+        Map<String, String> info = null;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String element = reader.getLocalName();
+            String text = readText(reader);
+            switch (element) {
+                case "pcrBank":
+                    bank = text;
+                    break;
+                case "pcrNumber":
+                    pcrNumber = text;
+                    break;
+                case "name":
+                    name = text;
+                    break;
+                case "value":
+                    value = text;
+                    break;
+                default:
+                    if (info == null) {
+                        info = new HashMap<>();
+                    }
+                    info.put(element, text);
+            }
+        }
+        if (pcrNumber == null || value == null) {
+            throw new IOException("Event log module is missing pcrNumber or value");
+        }
+        DigestAlgorithm pcrBank;
+        try {
+            pcrBank = bank == null || bank.isEmpty() ? DigestAlgorithm.SHA1 : DigestAlgorithm.valueOf(bank.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown PCR bank in event log: " + bank, e);
+        }
+        if (!PcrBankType.isSupported(pcrBank)) {
+            log.debug("Skipping event log measurement {} for unsupported PCR bank {}", name, pcrBank);
+            return false;
+        }
+        if (count >= maxMeasurements) {
+            throw new IOException(String.format("Event log has more than %d measurements", maxMeasurements));
+        }
+        PcrIndex pcrIndex;
+        Measurement measurement;
+        try {
+            pcrIndex = PcrIndex.valueOf(pcrNumber.trim());
+            measurement = PcrBankType.valueOf(pcrBank).newMeasurement(value, name, info);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(String.format("Invalid event log measurement %s for PCR %s", name, pcrNumber), e);
+        }
+        listener.onMeasurement(pcrBank, pcrIndex, measurement);
+        return true;
+    }
+
+    /**
+     * Returns the text of a simple element, or the concatenated text of a
+     * nested one, leaving the reader on its end tag.
+     */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    text.append(reader.getText());
+                    break;
+                default:
+            }
+        }
+        return text.toString().trim();
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    /**
+     * Appends measurements to the event log of their PCR, creating the event
+     * log the first time a PCR is seen.
+     */
+    private static class PcrManifestAppender implements Listener {
+        private final PcrManifest pcrManifest;
+
+        PcrManifestAppender(PcrManifest pcrManifest) {
+            this.pcrManifest = pcrManifest;
+        }
+
+        @Override
+        public void onMeasurement(DigestAlgorithm bank, PcrIndex pcrIndex, Measurement measurement) {
+            PcrEventLog pcrEventLog = pcrManifest.getPcrEventLog(bank, pcrIndex);
+            if (pcrEventLog == null) {
+                pcrEventLog = PcrEventLogFactory.newInstance(bank, pcrIndex, new ArrayList());
+                pcrManifest.setPcrEventLog(pcrEventLog);
+            }
+            pcrEventLog.getEventLog().add(measurement);
+        }
+    }
+
+    /**
+     * Presents base64 text as a byte stream without copying it; base64 is
+     * plain ASCII so every character is one byte.
+     */
+    private static class AsciiInputStream extends InputStream {
+        private final CharSequence text;
+        private int position;
+
+        AsciiInputStream(CharSequence text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read() {
+            return position < text.length() ? text.charAt(position++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int remaining = text.length() - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = Math.min(len, remaining);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) text.charAt(position++);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return text.length() - position;
+        }
+    }
+}
@@ -5,14 +5,15 @@
 package com.intel.mtwilson.core.common.validators;
 
 import com.intel.dcsg.cpg.validation.InputValidator;
-import com.intel.dcsg.cpg.xml.JAXB;
-import com.intel.wml.manifest.xml.Manifest;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
-import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 
 /**
+ * Validates manifest XML against the bundled schema without building an
+ * object graph; faults carry the line and column of each schema error.
  *
  * @author ddhawal
  */
@@ -24,9 +25,14 @@ public class ManifestValidator extends InputValidator<String> {
         String input = getInput();
         if (input != null && !input.isEmpty()) {
             try {
-                JAXB manifestJaxb = new JAXB();
-                manifestJaxb.read(input, Manifest.class);
-            } catch (IOException | JAXBException | XMLStreamException ex) {
+                for (SAXParseException error : WmlSchemaValidation.validate(WmlSchemaValidation.Document.MANIFEST, input)) {
+                    log.error("Manifest string specified is invalid at {}", WmlSchemaValidation.describe(error));
+                    fault(error, String.format("Invalid manifest at %s", WmlSchemaValidation.describe(error)));
+                }
+            } catch (SAXParseException ex) {
+                log.error("Manifest string specified is invalid at {}", WmlSchemaValidation.describe(ex));
+                fault(ex, String.format("Invalid manifest at %s", WmlSchemaValidation.describe(ex)));
+            } catch (IOException | SAXException | XMLStreamException ex) {
                 log.error("Manifest string specified is invalid. {}", ex.getMessage());
                 fault(ex, "Invalid manifest");
             }
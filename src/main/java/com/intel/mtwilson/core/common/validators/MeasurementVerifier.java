@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.validators;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Checks that the CumulativeHash of an application measurement document
+ * matches its Dir, File and Symlink entries. The cumulative hash starts as
+ * all zeros and every entry digest is folded in, in document order:
+ * <pre>
+ * cumulative = H(cumulative || entry digest)
+ * </pre>
+ * where H is the DigestAlg of the document.
+ *
+ * The document is read once with a StAX reader and entries are not kept, so
+ * memory use does not depend on the number of entries. Only the paths of the
+ * first {@link #MAX_REPORTED_ENTRIES} malformed entries are reported.
+ */
+public class MeasurementVerifier {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MeasurementVerifier.class);
+    public static final int MAX_REPORTED_ENTRIES = 100;
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    public Result verify(String measurementXml) throws IOException {
+        return verify(new StringReader(measurementXml));
+    }
+
+    public Result verify(Reader measurementXml) throws IOException {
+        try {
+            return verify(XML_INPUT_FACTORY.createXMLStreamReader(measurementXml));
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot parse measurement", e);
+        }
+    }
+
+    /**
+     * Reads the document from the stream without closing it.
+     */
+    public Result verify(InputStream measurementXml) throws IOException {
+        try {
+            return verify(XML_INPUT_FACTORY.createXMLStreamReader(measurementXml));
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot parse measurement", e);
+        }
+    }
+
+    private Result verify(XMLStreamReader reader) throws IOException, XMLStreamException {
+        Result result = new Result();
+        MessageDigest md = null;
+        byte[] cumulative = null;
+        byte[] entryDigest = null;
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (reader.getLocalName()) {
+                    case "Measurement":
+                        result.label = reader.getAttributeValue(null, "Label");
+                        result.uuid = reader.getAttributeValue(null, "Uuid");
+                        result.digestAlg = reader.getAttributeValue(null, "DigestAlg");
+                        md = messageDigest(result.digestAlg);
+                        cumulative = new byte[md.getDigestLength()];
+                        entryDigest = new byte[md.getDigestLength()];
+                        break;
+                    case "Dir":
+                    case "File":
+                    case "Symlink":
+                        if (md == null) {
+                            throw new IOException("Measurement entry outside of Measurement element");
+                        }
+                        String path = reader.getAttributeValue(null, "Path");
+                        if (decodeHex(reader.getElementText(), entryDigest)) {
+                            md.update(cumulative);
+                            md.update(entryDigest);
+                            md.digest(cumulative, 0, cumulative.length);
+                            result.entryCount++;
+                        } else {
+                            result.addInvalidEntry(path);
+                        }
+                        break;
+                    case "CumulativeHash":
+                        result.expectedCumulativeHash = reader.getElementText().trim();
+                        break;
+                    default:
+                }
+            }
+        } catch (DigestException e) {
+            throw new IOException("Cannot compute cumulative hash", e);
+        } finally {
+            reader.close();
+        }
+        if (cumulative == null) {
+            throw new IOException("Document does not contain a Measurement element");
+        }
+        result.computedCumulativeHash = Hex.encodeHexString(cumulative);
+        log.debug("Measurement {} has {} entries, cumulative hash {} expected {}", result.label, result.entryCount, result.computedCumulativeHash, result.expectedCumulativeHash);
+        return result;
+    }
+
+    /**
+     * Decodes a hex digest into the buffer without allocating.
+     *
+     * @return false if the text is not a hex digest of the buffer length
+     */
+    private static boolean decodeHex(String text, byte[] digest) {
+        String hex = text.trim();
+        if (hex.length() != digest.length * 2) {
+            return false;
+        }
+        for (int i = 0; i < digest.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return false;
+            }
+            digest[i] = (byte) ((high << 4) | low);
+        }
+        return true;
+    }
+
+    private static MessageDigest messageDigest(String digestAlg) throws IOException {
+        if (digestAlg == null || digestAlg.isEmpty()) {
+            throw new IOException("Measurement does not specify DigestAlg");
+        }
+        // DigestAlg is written as SHA384 or SHA-384, MessageDigest needs SHA-384
+        String name = digestAlg.trim().toUpperCase().replace("-", "");
+        if (name.startsWith("SHA")) {
+            name = "SHA-" + name.substring(3);
+        }
+        try {
+            return MessageDigest.getInstance(name);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unsupported DigestAlg: " + digestAlg, e);
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    public static class Result {
+        private String label;
+        private String uuid;
+        private String digestAlg;
+        private String expectedCumulativeHash;
+        private String computedCumulativeHash;
+        private long entryCount;
+        private long invalidEntryCount;
+        private final List<String> invalidEntries = new ArrayList<>();
+
+        private void addInvalidEntry(String path) {
+            invalidEntryCount++;
+            if (invalidEntries.size() < MAX_REPORTED_ENTRIES) {
+                invalidEntries.add(path);
+            }
+        }
+
+        /**
+         * @return true if the document has a cumulative hash, all entries have
+         * well-formed digests, and the cumulative hash matches the entries
+         */
+        public boolean isValid() {
+            return invalidEntryCount == 0 && isCumulativeHashMatch();
+        }
+
+        public boolean isCumulativeHashMatch() {
+            return expectedCumulativeHash != null && expectedCumulativeHash.equalsIgnoreCase(computedCumulativeHash);
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public String getUuid() {
+            return uuid;
+        }
+
+        public String getDigestAlg() {
+            return digestAlg;
+        }
+
+        /**
+         * @return the CumulativeHash in the document, or null if it has none
+         */
+        public String getExpectedCumulativeHash() {
+            return expectedCumulativeHash;
+        }
+
+        public String getComputedCumulativeHash() {
+            return computedCumulativeHash;
+        }
+
+        /**
+         * @return number of entries folded into the computed cumulative hash
+         */
+        public long getEntryCount() {
+            return entryCount;
+        }
+
+        /**
+         * @return number of entries skipped because their digest is missing or malformed
+         */
+        public long getInvalidEntryCount() {
+            return invalidEntryCount;
+        }
+
+        /**
+         * @return paths of up to {@link #MAX_REPORTED_ENTRIES} entries with a missing or malformed digest
+         */
+        public List<String> getInvalidEntries() {
+            return Collections.unmodifiableList(invalidEntries);
+        }
+    }
+}
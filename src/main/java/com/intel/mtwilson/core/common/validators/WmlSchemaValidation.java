@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.validators;
+
+import com.intel.mtwilson.core.common.utils.BoundedCache;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import org.apache.commons.codec.binary.Hex;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Streaming schema validation of WML measurement and manifest documents.
+ *
+ * The bundled schemas are compiled once and shared; a compiled Schema is
+ * thread-safe. Documents are validated through a StAX reader, so no object
+ * graph is built. Documents that passed validation are remembered by their
+ * SHA-256 digest, and validating the same content again only costs the
+ * digest.
+ */
+final class WmlSchemaValidation {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(WmlSchemaValidation.class);
+    static final int MAX_ERRORS = 20;
+    private static final int MAX_VALIDATED_DOCUMENTS = 10000;
+
+    enum Document {
+        MEASUREMENT("jaxb/lib-wml-measurement-xml/lib-wml-measurement.xsd"),
+        MANIFEST("jaxb/lib-wml-manifest-xml/lib-wml-manifest.xsd");
+
+        private final String schemaResource;
+        private volatile Schema schema;
+
+        Document(String schemaResource) {
+            this.schemaResource = schemaResource;
+        }
+
+        Schema getSchema() throws SAXException {
+            Schema result = schema;
+            if (result == null) {
+                // compiling twice in a race is harmless
+                URL url = WmlSchemaValidation.class.getClassLoader().getResource(schemaResource);
+                if (url == null) {
+                    throw new IllegalStateException("Schema not found: " + schemaResource);
+                }
+                SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                result = factory.newSchema(url);
+                schema = result;
+            }
+            return result;
+        }
+    }
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+    private static final BoundedCache<String, Boolean> VALIDATED = new BoundedCache<>(MAX_VALIDATED_DOCUMENTS);
+
+    private WmlSchemaValidation() {
+    }
+
+    /**
+     * @return the schema errors, empty if the document is valid
+     * @throws SAXParseException if the document is not well-formed
+     */
+    static List<SAXParseException> validate(Document document, String xml) throws IOException, SAXException, XMLStreamException {
+        String digest = digest(document, xml);
+        if (VALIDATED.get(digest) != null) {
+            log.debug("{} already validated", document);
+            return new ArrayList<>();
+        }
+        final List<SAXParseException> errors = new ArrayList<>();
+        Validator validator = document.getSchema().newValidator();
+        validator.setErrorHandler(new ErrorHandler() {
+            @Override
+            public void warning(SAXParseException exception) {
+                log.debug("{} schema warning: {}", document, exception.getMessage());
+            }
+
+            @Override
+            public void error(SAXParseException exception) throws SAXException {
+                errors.add(exception);
+                if (errors.size() >= MAX_ERRORS) {
+                    throw exception;
+                }
+            }
+
+            @Override
+            public void fatalError(SAXParseException exception) throws SAXException {
+                throw exception;
+            }
+        });
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xml));
+        try {
+            validator.validate(new StAXSource(reader));
+        } catch (SAXParseException e) {
+            if (errors.isEmpty() || errors.get(errors.size() - 1) != e) {
+                throw e;
+            }
+        } finally {
+            reader.close();
+        }
+        if (errors.isEmpty()) {
+            VALIDATED.put(digest, Boolean.TRUE);
+        }
+        return errors;
+    }
+
+    static String describe(SAXParseException e) {
+        return String.format("line %d, column %d: %s", e.getLineNumber(), e.getColumnNumber(), e.getMessage());
+    }
+
+    private static String digest(Document document, String xml) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update((byte) document.ordinal());
+            return Hex.encodeHexString(md.digest(xml.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.tpm;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class NonceServiceTest {
+    /** mask of the initial LongHashSet table */
+    private static final int MASK = 63;
+
+    @Test
+    public void testNewNonce() {
+        byte[] a = NonceService.newNonce();
+        byte[] b = NonceService.newNonce();
+        assertEquals(NonceService.NONCE_LENGTH, a.length);
+        assertFalse(java.util.Arrays.equals(a, b));
+    }
+
+    @Test
+    public void testFreshThenReplayed() {
+        NonceService service = new NonceService();
+        byte[] nonce = service.issue();
+        assertEquals(NonceService.Status.FRESH, service.check(nonce));
+        assertEquals(NonceService.Status.REPLAYED, service.check(nonce));
+        assertEquals(1, service.getIssuedCount());
+        assertEquals(1, service.getFreshCount());
+        assertEquals(1, service.getReplayedCount());
+    }
+
+    @Test
+    public void testUnknown() {
+        NonceService service = new NonceService();
+        service.issue();
+        assertEquals(NonceService.Status.UNKNOWN, service.check(NonceService.newNonce()));
+        assertEquals(NonceService.Status.UNKNOWN, service.check(new byte[NonceService.NONCE_LENGTH - 1]));
+        assertEquals(NonceService.Status.UNKNOWN, service.check((byte[]) null));
+        assertEquals(3, service.getUnknownCount());
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        NonceService service = new NonceService(16, TimeUnit.MILLISECONDS, NonceService.DEFAULT_CAPACITY);
+        byte[] nonce = service.issue();
+        Thread.sleep(100);
+        assertEquals(NonceService.Status.UNKNOWN, service.check(nonce));
+        assertEquals(0, service.size());
+    }
+
+    @Test
+    public void testCapacity() {
+        NonceService service = new NonceService(1, TimeUnit.HOURS, 1);
+        byte[] first = service.issue();
+        byte[] second = service.issue();
+        assertEquals(1, service.size());
+        assertEquals(NonceService.Status.UNKNOWN, service.check(first));
+        assertEquals(NonceService.Status.FRESH, service.check(second));
+    }
+
+    @Test
+    public void testZeroKey() {
+        NonceService.LongHashSet set = new NonceService.LongHashSet();
+        assertTrue(set.add(0));
+        assertTrue(set.contains(0));
+        assertFalse(set.add(0));
+        assertTrue(set.remove(0));
+        assertFalse(set.contains(0));
+        assertEquals(0, set.size());
+    }
+
+    /**
+     * Removing the head of a probe chain must shift the rest of the chain
+     * back, including a key whose home slot is the next slot and that was
+     * pushed further by the collisions.
+     */
+    @Test
+    public void testRemoveShiftsCollisionsBack() {
+        int home = 5;
+        List<Long> collisions = keysWithSlot(home, 3);
+        long neighbor = keysWithSlot(home + 1, 1).get(0);
+        NonceService.LongHashSet set = new NonceService.LongHashSet();
+        for (long key : collisions) {
+            set.add(key);
+        }
+        set.add(neighbor);
+        assertTrue(set.remove(collisions.get(0)));
+        assertFalse(set.contains(collisions.get(0)));
+        assertTrue(set.contains(collisions.get(1)));
+        assertTrue(set.contains(collisions.get(2)));
+        assertTrue(set.contains(neighbor));
+        assertTrue(set.remove(collisions.get(2)));
+        assertTrue(set.contains(collisions.get(1)));
+        assertTrue(set.contains(neighbor));
+        assertTrue(set.remove(neighbor));
+        assertTrue(set.contains(collisions.get(1)));
+        assertEquals(1, set.size());
+    }
+
+    /**
+     * A key in its home slot must not be shifted back into the slot of a
+     * removed key that comes before its home.
+     */
+    @Test
+    public void testRemoveKeepsKeyInHomeSlot() {
+        List<Long> collisions = keysWithSlot(10, 2);
+        long atHome = keysWithSlot(12, 1).get(0);
+        NonceService.LongHashSet set = new NonceService.LongHashSet();
+        set.add(collisions.get(0));
+        set.add(collisions.get(1));
+        set.add(atHome);
+        assertTrue(set.remove(collisions.get(0)));
+        assertTrue(set.contains(collisions.get(1)));
+        assertTrue(set.contains(atHome));
+        assertTrue(set.remove(collisions.get(1)));
+        assertTrue(set.contains(atHome));
+    }
+
+    @Test
+    public void testRemoveWrapsAroundTable() {
+        List<Long> collisions = keysWithSlot(MASK, 3);
+        long wrapped = keysWithSlot(0, 1).get(0);
+        NonceService.LongHashSet set = new NonceService.LongHashSet();
+        for (long key : collisions) {
+            set.add(key);
+        }
+        set.add(wrapped);
+        assertTrue(set.remove(collisions.get(0)));
+        assertTrue(set.contains(collisions.get(1)));
+        assertTrue(set.contains(collisions.get(2)));
+        assertTrue(set.contains(wrapped));
+        assertTrue(set.remove(collisions.get(1)));
+        assertTrue(set.remove(collisions.get(2)));
+        assertTrue(set.contains(wrapped));
+        assertFalse(set.remove(collisions.get(2)));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void testAgainstHashSet() {
+        Random random = new Random(1);
+        NonceService.LongHashSet set = new NonceService.LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 100000; i++) {
+            // a small key range so that adds, removes and collisions repeat
+            long key = random.nextInt(512) * 0x100000001L;
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.add(key), set.add(key));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(key), set.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.contains(key), set.contains(key));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (long key : expected) {
+            assertTrue(set.contains(key));
+        }
+        set.clear();
+        assertEquals(0, set.size());
+        for (long key : expected) {
+            assertFalse(set.contains(key));
+        }
+    }
+
+    private static List<Long> keysWithSlot(int slot, int count) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = 2; keys.size() < count; key++) {
+            if (NonceService.LongHashSet.slot(key, MASK) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.tpm;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.dcsg.cpg.crypto.Sha1Digest;
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import com.intel.mtwilson.core.common.model.MeasurementSha1;
+import com.intel.mtwilson.core.common.model.MeasurementSha256;
+import com.intel.mtwilson.core.common.model.PcrBank;
+import com.intel.mtwilson.core.common.model.PcrEventLogSha1;
+import com.intel.mtwilson.core.common.model.PcrEventLogSha256;
+import com.intel.mtwilson.core.common.model.PcrIndex;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PcrReplayerTest {
+
+    @Test
+    public void testReplaySha256() throws Exception {
+        List<byte[]> digests = digests(1, 5, 32);
+        byte[] replayed = new PcrReplayer().replay(DigestAlgorithm.SHA256, sha256Log(17, digests));
+        assertArrayEquals(extend("SHA-256", 32, digests), replayed);
+    }
+
+    @Test
+    public void testReplaySha1() throws Exception {
+        List<byte[]> digests = digests(2, 5, 20);
+        byte[] replayed = new PcrReplayer().replay(DigestAlgorithm.SHA1, sha1Log(17, digests));
+        assertArrayEquals(extend("SHA-1", 20, digests), replayed);
+    }
+
+    @Test
+    public void testReplayEmptyLog() throws Exception {
+        byte[] replayed = new PcrReplayer().replay(DigestAlgorithm.SHA256, sha256Log(0, Collections.<byte[]>emptyList()));
+        assertArrayEquals(new byte[32], replayed);
+    }
+
+    @Test
+    public void testReplayOrderMatters() throws Exception {
+        List<byte[]> digests = digests(3, 2, 32);
+        List<byte[]> reversed = new ArrayList<>(digests);
+        Collections.reverse(reversed);
+        PcrReplayer replayer = new PcrReplayer();
+        assertFalse(java.util.Arrays.equals(
+                replayer.replay(DigestAlgorithm.SHA256, sha256Log(17, digests)),
+                replayer.replay(DigestAlgorithm.SHA256, sha256Log(17, reversed))));
+    }
+
+    @Test
+    public void testManifestMatch() throws Exception {
+        List<byte[]> pcr17 = digests(4, 3, 32);
+        List<byte[]> pcr18 = digests(5, 4, 32);
+        PcrManifest manifest = new PcrManifest();
+        manifest.setPcrEventLog(sha256Log(17, pcr17));
+        manifest.setPcrEventLog(sha256Log(18, pcr18));
+        PcrBank reported = new PcrBank(DigestAlgorithm.SHA256);
+        reported.setValue(17, extend("SHA-256", 32, pcr17));
+        reported.setValue(18, extend("SHA-256", 32, pcr18));
+        manifest.setPcrs(reported);
+
+        PcrReplayer.Result result = new PcrReplayer().replay(manifest);
+        assertTrue(result.isMatch());
+        assertEquals((1 << 17) | (1 << 18), result.getMatchMask(DigestAlgorithm.SHA256));
+        assertEquals(0, result.getMismatchMask(DigestAlgorithm.SHA256));
+        assertTrue(result.isMatch(DigestAlgorithm.SHA256, 17));
+        assertArrayEquals(extend("SHA-256", 32, pcr17), result.getReplayedValues(DigestAlgorithm.SHA256).getValue(17));
+        assertArrayEquals(extend("SHA-256", 32, pcr18), result.getReplayedValues(DigestAlgorithm.SHA256).getValue(18));
+        assertNull(result.getReplayedValues(DigestAlgorithm.SHA1));
+    }
+
+    @Test
+    public void testManifestMismatch() throws Exception {
+        List<byte[]> pcr17 = digests(6, 3, 32);
+        List<byte[]> pcr18 = digests(7, 3, 32);
+        PcrManifest manifest = new PcrManifest();
+        manifest.setPcrEventLog(sha256Log(17, pcr17));
+        manifest.setPcrEventLog(sha256Log(18, pcr18));
+        PcrBank reported = new PcrBank(DigestAlgorithm.SHA256);
+        reported.setValue(17, extend("SHA-256", 32, pcr17));
+        reported.setValue(18, extend("SHA-256", 32, pcr17));
+        manifest.setPcrs(reported);
+
+        PcrReplayer.Result result = new PcrReplayer().replay(manifest);
+        assertFalse(result.isMatch());
+        assertEquals(1 << 17, result.getMatchMask(DigestAlgorithm.SHA256));
+        assertEquals(1 << 18, result.getMismatchMask(DigestAlgorithm.SHA256));
+        assertFalse(result.isMatch(DigestAlgorithm.SHA256, 18));
+    }
+
+    @Test
+    public void testManifestMissingReportedPcr() throws Exception {
+        PcrManifest manifest = new PcrManifest();
+        manifest.setPcrEventLog(sha256Log(19, digests(8, 2, 32)));
+
+        PcrReplayer.Result result = new PcrReplayer().replay(manifest);
+        assertFalse(result.isMatch());
+        assertEquals(0, result.getMatchMask(DigestAlgorithm.SHA256));
+        assertEquals(1 << 19, result.getMismatchMask(DigestAlgorithm.SHA256));
+    }
+
+    @Test
+    public void testManifestBanksAreIndependent() throws Exception {
+        List<byte[]> sha1 = digests(9, 3, 20);
+        List<byte[]> sha256 = digests(10, 3, 32);
+        PcrManifest manifest = new PcrManifest();
+        manifest.setPcrEventLog(sha1Log(17, sha1));
+        manifest.setPcrEventLog(sha256Log(17, sha256));
+        PcrBank reportedSha1 = new PcrBank(DigestAlgorithm.SHA1);
+        reportedSha1.setValue(17, extend("SHA-1", 20, sha1));
+        manifest.setPcrs(reportedSha1);
+
+        PcrReplayer.Result result = new PcrReplayer().replay(manifest);
+        assertTrue(result.isMatch(DigestAlgorithm.SHA1, 17));
+        assertFalse(result.isMatch(DigestAlgorithm.SHA256, 17));
+        assertArrayEquals(extend("SHA-256", 32, sha256), result.getReplayedValues(DigestAlgorithm.SHA256).getValue(17));
+    }
+
+    /**
+     * Event logs of one bank share the replayed value array; replaying them
+     * in parallel must give the same values as replaying them in sequence.
+     */
+    @Test
+    public void testParallelMatchesSequential() throws Exception {
+        PcrManifest manifest = new PcrManifest();
+        PcrBank reported = new PcrBank(DigestAlgorithm.SHA256);
+        for (int index = 0; index < PcrBank.PCR_COUNT; index++) {
+            List<byte[]> digests = digests(100 + index, 50, 32);
+            manifest.setPcrEventLog(sha256Log(index, digests));
+            if (index % 2 == 0) {
+                reported.setValue(index, extend("SHA-256", 32, digests));
+            }
+        }
+        manifest.setPcrs(reported);
+
+        PcrReplayer sequential = new PcrReplayer();
+        sequential.setParallelThreshold(Integer.MAX_VALUE);
+        PcrReplayer parallel = new PcrReplayer();
+        parallel.setParallelThreshold(0);
+        PcrReplayer.Result expected = sequential.replay(manifest);
+        PcrReplayer.Result actual = parallel.replay(manifest);
+        assertEquals(expected.getReplayedValues(DigestAlgorithm.SHA256), actual.getReplayedValues(DigestAlgorithm.SHA256));
+        assertEquals(0x555555, actual.getMatchMask(DigestAlgorithm.SHA256));
+        assertEquals(0xaaaaaa, actual.getMismatchMask(DigestAlgorithm.SHA256));
+    }
+
+    private static List<byte[]> digests(int seed, int count, int length) {
+        java.util.Random random = new java.util.Random(seed);
+        List<byte[]> digests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] digest = new byte[length];
+            random.nextBytes(digest);
+            digests.add(digest);
+        }
+        return digests;
+    }
+
+    /**
+     * Reference TPM extend: PCR = H(PCR || measurement), starting from zeros.
+     */
+    private static byte[] extend(String algorithm, int length, List<byte[]> digests) throws Exception {
+        MessageDigest md = MessageDigest.getInstance(algorithm);
+        byte[] pcr = new byte[length];
+        for (byte[] digest : digests) {
+            md.update(pcr);
+            md.update(digest);
+            pcr = md.digest();
+        }
+        return pcr;
+    }
+
+    private static PcrEventLogSha256 sha256Log(int index, List<byte[]> digests) {
+        List<MeasurementSha256> measurements = new ArrayList<>();
+        for (int i = 0; i < digests.size(); i++) {
+            measurements.add(new MeasurementSha256(new Sha256Digest(digests.get(i)), "measurement" + i));
+        }
+        return new PcrEventLogSha256(PcrIndex.valueOf(index), measurements);
+    }
+
+    private static PcrEventLogSha1 sha1Log(int index, List<byte[]> digests) {
+        List<MeasurementSha1> measurements = new ArrayList<>();
+        for (int i = 0; i < digests.size(); i++) {
+            measurements.add(new MeasurementSha1(new Sha1Digest(digests.get(i)), "measurement" + i));
+        }
+        return new PcrEventLogSha1(PcrIndex.valueOf(index), measurements);
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2019 Intel Corporation
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+package com.intel.mtwilson.core.common.tpm;
+
+import com.intel.dcsg.cpg.crypto.DigestAlgorithm;
+import com.intel.mtwilson.core.common.model.PcrBank;
+import com.intel.mtwilson.core.common.model.PcrManifest;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Quotes are built here in the TPM 2.0 wire format and signed with keys
+ * generated for the test, with and without the TPM2B_ATTEST size prefix.
+ */
+public class TpmQuoteVerifierTest {
+    private static final byte[] NONCE = filled(20, 0x5a);
+    private static final byte[] QUALIFIED_SIGNER = filled(34, 0x0b);
+    private static final long CLOCK = 0x0102030405060708L;
+    private static final int RESET_COUNT = 3;
+    private static final int RESTART_COUNT = 1;
+    private static final long FIRMWARE_VERSION = 0x2000000000000L;
+    private static final byte[] SHA1_PCR0 = filled(20, 0x01);
+    private static final byte[] SHA256_PCR0 = filled(32, 0x02);
+    private static final byte[] SHA256_PCR7 = filled(32, 0x03);
+    /** SHA1 PCR 0, SHA256 PCRs 0 and 7 */
+    private static final int SHA1_SELECTION = 1;
+    private static final int SHA256_SELECTION = 1 | 1 << 7;
+
+    private static KeyPair rsa;
+    private static KeyPair ec;
+
+    @BeforeClass
+    public static void generateKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        rsa = generator.generateKeyPair();
+        generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        ec = generator.generateKeyPair();
+    }
+
+    @Test
+    public void testRsassaQuote() throws Exception {
+        assertStatus(TpmQuoteVerifier.Status.VALID, rsassaQuote(attest(NONCE, pcrDigest()), false), rsa, NONCE, manifest());
+    }
+
+    @Test
+    public void testRsassaQuoteWithSizePrefix() throws Exception {
+        assertStatus(TpmQuoteVerifier.Status.VALID, rsassaQuote(attest(NONCE, pcrDigest()), true), rsa, NONCE, manifest());
+    }
+
+    @Test
+    public void testEcdsaQuote() throws Exception {
+        assertStatus(TpmQuoteVerifier.Status.VALID, ecdsaQuote(attest(NONCE, pcrDigest()), false), ec, NONCE, manifest());
+    }
+
+    @Test
+    public void testEcdsaQuoteWithSizePrefix() throws Exception {
+        assertStatus(TpmQuoteVerifier.Status.VALID, ecdsaQuote(attest(NONCE, pcrDigest()), true), ec, NONCE, manifest());
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        byte[] attest = attest(NONCE, pcrDigest());
+        byte[] quote = rsassaQuote(attest, true);
+        byte[] trailer = filled(8, 0x7f);
+        byte[] withTrailer = concat(quote, trailer);
+        TpmQuote parsed = TpmQuote.parse(withTrailer);
+        assertEquals(ByteBuffer.wrap(attest), parsed.getAttest());
+        assertEquals(ByteBuffer.wrap(QUALIFIED_SIGNER), parsed.getQualifiedSigner());
+        assertEquals(ByteBuffer.wrap(NONCE), parsed.getExtraData());
+        assertEquals(CLOCK, parsed.getClock());
+        assertEquals(RESET_COUNT, parsed.getResetCount());
+        assertEquals(RESTART_COUNT, parsed.getRestartCount());
+        assertTrue(parsed.isSafe());
+        assertEquals(FIRMWARE_VERSION, parsed.getFirmwareVersion());
+        assertEquals(2, parsed.getSelectionCount());
+        assertEquals(TpmQuote.TPM_ALG_SHA1, parsed.getSelectedBank(0));
+        assertEquals(SHA1_SELECTION, parsed.getSelectedPcrs(0));
+        assertEquals(TpmQuote.TPM_ALG_SHA256, parsed.getSelectedBank(1));
+        assertEquals(SHA256_SELECTION, parsed.getSelectedPcrs(1));
+        assertEquals(ByteBuffer.wrap(pcrDigest()), parsed.getPcrDigest());
+        assertEquals(TpmQuote.TPM_ALG_RSASSA, parsed.getSignatureAlgorithm());
+        assertEquals(TpmQuote.TPM_ALG_SHA256, parsed.getSignatureHashAlgorithm());
+        assertNull(parsed.getSignatureS());
+        assertEquals(ByteBuffer.wrap(trailer), parsed.getTrailer());
+    }
+
+    @Test
+    public void testParseDoesNotMoveBufferPosition() throws Exception {
+        ByteBuffer quote = ByteBuffer.wrap(ecdsaQuote(attest(NONCE, pcrDigest()), false));
+        TpmQuote parsed = TpmQuote.parse(quote);
+        assertEquals(0, quote.position());
+        assertEquals(TpmQuote.TPM_ALG_ECDSA, parsed.getSignatureAlgorithm());
+        assertEquals(32, parsed.getSignature().remaining());
+        assertEquals(32, parsed.getSignatureS().remaining());
+        assertEquals(0, parsed.getTrailer().remaining());
+    }
+
+    @Test
+    public void testTruncatedQuote() throws Exception {
+        byte[] attest = attest(NONCE, pcrDigest());
+        for (byte[] quote : new byte[][] {rsassaQuote(attest, false), rsassaQuote(attest, true), ecdsaQuote(attest, false), ecdsaQuote(attest, true)}) {
+            for (int length = 0; length < quote.length; length++) {
+                TpmQuoteVerifier.Result result = new TpmQuoteVerifier().verify(ByteBuffer.wrap(quote, 0, length), rsa.getPublic(), NONCE, manifest());
+                assertEquals("length " + length, TpmQuoteVerifier.Status.MALFORMED, result.getStatus());
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSizePrefixMismatch() throws Exception {
+        byte[] quote = rsassaQuote(attest(NONCE, pcrDigest()), true);
+        quote[1]--;
+        TpmQuote.parse(quote);
+    }
+
+    @Test
+    public void testNotAQuote() throws Exception {
+        byte[] attest = attest(NONCE, pcrDigest());
+        attest[5] = 0x17; // TPM_ST_ATTEST_CERTIFY
+        assertStatus(TpmQuoteVerifier.Status.MALFORMED, rsassaQuote(attest, false), rsa, NONCE, manifest());
+    }
+
+    @Test
+    public void testWrongNonce() throws Exception {
+        byte[] quote = rsassaQuote(attest(NONCE, pcrDigest()), false);
+        assertStatus(TpmQuoteVerifier.Status.NONCE_MISMATCH, quote, rsa, filled(20, 0x5b), manifest());
+        assertStatus(TpmQuoteVerifier.Status.NONCE_MISMATCH, quote, rsa, Arrays.copyOf(NONCE, 19), manifest());
+        assertStatus(TpmQuoteVerifier.Status.NONCE_MISMATCH, quote, rsa, null, manifest());
+    }
+
+    @Test
+    public void testPcrNotCoveredByQuote() throws Exception {
+        PcrManifest manifest = manifest();
+        PcrBank sha256 = manifest.toPcrBank(DigestAlgorithm.SHA256);
+        sha256.setValue(8, filled(32, 0x04));
+        manifest.setPcrs(sha256);
+        assertStatus(TpmQuoteVerifier.Status.PCR_MISMATCH, rsassaQuote(attest(NONCE, pcrDigest()), false), rsa, NONCE, manifest);
+    }
+
+    @Test
+    public void testSelectedPcrMissingFromManifest() throws Exception {
+        PcrManifest manifest = manifest();
+        manifest.clearPcr(DigestAlgorithm.SHA256, 7);
+        assertStatus(TpmQuoteVerifier.Status.PCR_MISMATCH, rsassaQuote(attest(NONCE, pcrDigest()), false), rsa, NONCE, manifest);
+    }
+
+    @Test
+    public void testPcrValueMismatch() throws Exception {
+        PcrManifest manifest = manifest();
+        PcrBank sha256 = manifest.toPcrBank(DigestAlgorithm.SHA256);
+        sha256.setValue(7, filled(32, 0x04));
+        manifest.setPcrs(sha256);
+        assertStatus(TpmQuoteVerifier.Status.PCR_MISMATCH, ecdsaQuote(attest(NONCE, pcrDigest()), false), ec, NONCE, manifest);
+    }
+
+    @Test
+    public void testWithoutManifest() throws Exception {
+        assertStatus(TpmQuoteVerifier.Status.VALID, rsassaQuote(attest(NONCE, filled(32, 0)), false), rsa, NONCE, null);
+    }
+
+    @Test
+    public void testTamperedRsassaSignature() throws Exception {
+        byte[] quote = rsassaQuote(attest(NONCE, pcrDigest()), true);
+        quote[quote.length - 1] ^= 1;
+        assertStatus(TpmQuoteVerifier.Status.INVALID_SIGNATURE, quote, rsa, NONCE, manifest());
+    }
+
+    @Test
+    public void testTamperedEcdsaSignature() throws Exception {
+        byte[] quote = ecdsaQuote(attest(NONCE, pcrDigest()), true);
+        quote[quote.length - 40] ^= 1; // in r
+        assertStatus(TpmQuoteVerifier.Status.INVALID_SIGNATURE, quote, ec, NONCE, manifest());
+    }
+
+    @Test
+    public void testTamperedAttestation() throws Exception {
+        byte[] attest = attest(NONCE, pcrDigest());
+        byte[] quote = rsassaQuote(attest, false);
+        int clockOffset = 4 + 2 + 2 + QUALIFIED_SIGNER.length + 2 + NONCE.length;
+        quote[clockOffset + 7]++;
+        assertStatus(TpmQuoteVerifier.Status.INVALID_SIGNATURE, quote, rsa, NONCE, manifest());
+    }
+
+    @Test
+    public void testSignedByOtherKey() throws Exception {
+        assertStatus(TpmQuoteVerifier.Status.INVALID_SIGNATURE, rsassaQuote(attest(NONCE, pcrDigest()), false), ec, NONCE, manifest());
+    }
+
+    @Test
+    public void testCounts() throws Exception {
+        TpmQuoteVerifier verifier = new TpmQuoteVerifier();
+        byte[] quote = rsassaQuote(attest(NONCE, pcrDigest()), false);
+        assertTrue(verifier.verify(ByteBuffer.wrap(quote), rsa.getPublic(), NONCE, manifest()).isValid());
+        assertFalse(verifier.verify(ByteBuffer.wrap(quote), rsa.getPublic(), filled(20, 0), manifest()).isValid());
+        assertEquals(1, verifier.getValidCount());
+        assertEquals(1, verifier.getInvalidCount());
+    }
+
+    private static void assertStatus(TpmQuoteVerifier.Status expected, byte[] quote, KeyPair aik, byte[] nonce, PcrManifest manifest) {
+        TpmQuoteVerifier.Result result = new TpmQuoteVerifier().verify(ByteBuffer.wrap(quote), aik.getPublic(), nonce, manifest);
+        assertEquals(result.toString(), expected, result.getStatus());
+    }
+
+    private static PcrManifest manifest() {
+        PcrManifest manifest = new PcrManifest();
+        PcrBank sha1 = new PcrBank(DigestAlgorithm.SHA1);
+        sha1.setValue(0, SHA1_PCR0);
+        manifest.setPcrs(sha1);
+        PcrBank sha256 = new PcrBank(DigestAlgorithm.SHA256);
+        sha256.setValue(0, SHA256_PCR0);
+        sha256.setValue(7, SHA256_PCR7);
+        manifest.setPcrs(sha256);
+        return manifest;
+    }
+
+    /**
+     * @return the SHA-256 digest of the selected PCRs in selection order
+     */
+    private static byte[] pcrDigest() throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(SHA1_PCR0);
+        md.update(SHA256_PCR0);
+        md.update(SHA256_PCR7);
+        return md.digest();
+    }
+
+    /**
+     * @return a TPMS_ATTEST of type TPM_ST_ATTEST_QUOTE
+     */
+    private static byte[] attest(byte[] nonce, byte[] pcrDigest) {
+        ByteBuffer attest = ByteBuffer.allocate(256);
+        attest.putInt(TpmQuote.TPM_GENERATED_VALUE);
+        attest.putShort((short) TpmQuote.TPM_ST_ATTEST_QUOTE);
+        putSized(attest, QUALIFIED_SIGNER);
+        putSized(attest, nonce);
+        attest.putLong(CLOCK);
+        attest.putInt(RESET_COUNT);
+        attest.putInt(RESTART_COUNT);
+        attest.put((byte) 1);
+        attest.putLong(FIRMWARE_VERSION);
+        attest.putInt(2);
+        putSelection(attest, TpmQuote.TPM_ALG_SHA1, SHA1_SELECTION);
+        putSelection(attest, TpmQuote.TPM_ALG_SHA256, SHA256_SELECTION);
+        putSized(attest, pcrDigest);
+        return Arrays.copyOf(attest.array(), attest.position());
+    }
+
+    private static byte[] rsassaQuote(byte[] attest, boolean sizePrefix) throws Exception {
+        byte[] signature = sign("SHA256withRSA", rsa.getPrivate(), attest);
+        ByteBuffer quote = ByteBuffer.allocate(attest.length + signature.length + 8);
+        putAttest(quote, attest, sizePrefix);
+        quote.putShort((short) TpmQuote.TPM_ALG_RSASSA);
+        quote.putShort((short) TpmQuote.TPM_ALG_SHA256);
+        putSized(quote, signature);
+        return Arrays.copyOf(quote.array(), quote.position());
+    }
+
+    private static byte[] ecdsaQuote(byte[] attest, boolean sizePrefix) throws Exception {
+        byte[] der = sign("SHA256withECDSA", ec.getPrivate(), attest);
+        // SEQUENCE { INTEGER r, INTEGER s }, short form lengths for P-256
+        int rLength = der[3];
+        BigInteger r = new BigInteger(Arrays.copyOfRange(der, 4, 4 + rLength));
+        BigInteger s = new BigInteger(Arrays.copyOfRange(der, 6 + rLength, der.length));
+        ByteBuffer quote = ByteBuffer.allocate(attest.length + 80);
+        putAttest(quote, attest, sizePrefix);
+        quote.putShort((short) TpmQuote.TPM_ALG_ECDSA);
+        quote.putShort((short) TpmQuote.TPM_ALG_SHA256);
+        putSized(quote, unsigned(r, 32));
+        putSized(quote, unsigned(s, 32));
+        return Arrays.copyOf(quote.array(), quote.position());
+    }
+
+    private static byte[] sign(String algorithm, PrivateKey key, byte[] data) throws Exception {
+        Signature signature = Signature.getInstance(algorithm);
+        signature.initSign(key);
+        signature.update(data);
+        return signature.sign();
+    }
+
+    private static void putAttest(ByteBuffer quote, byte[] attest, boolean sizePrefix) {
+        if (sizePrefix) {
+            putSized(quote, attest);
+        } else {
+            quote.put(attest);
+        }
+    }
+
+    private static void putSized(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    private static void putSelection(ByteBuffer buffer, int bank, int pcrs) {
+        buffer.putShort((short) bank);
+        buffer.put((byte) 3);
+        buffer.put((byte) pcrs);
+        buffer.put((byte) (pcrs >>> 8));
+        buffer.put((byte) (pcrs >>> 16));
+    }
+
+    private static byte[] unsigned(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        byte[] result = new byte[length];
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, result, length - copy, copy);
+        return result;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+}